@@ -215,6 +215,7 @@ public class VelocityViewPager extends ViewGroup implements View.OnClickListener
     private ArrayList<View> mDrawingOrderedChildren;
     private Comparator<View> mDrawOrderComparator = new ViewPositionComparator();
 
+    private OnFlingListener mOnFlingListener;
     private OnItemClickListener mOnItemClickListener;
     private OnItemLongClickListener mOnItemLongClickListener;
 
@@ -514,6 +515,30 @@ public class VelocityViewPager extends ViewGroup implements View.OnClickListener
         return mCurItem;
     }
 
+    /**
+     * Returns the page a fling in progress is predicted to settle on, from the final position
+     * the scroller computed when the fling started.  When the pager is not settling this is
+     * the current item.
+     */
+    public int getPredictedItem() {
+        if (mScrollState != SCROLL_STATE_SETTLING || mScroller.isFinished()) {
+            return mCurItem;
+        }
+        return itemForScrollX(mScroller.getFinalX());
+    }
+
+    /**
+     * Maps a scroll position to the page whose left edge is nearest to it, the page a fling
+     * ending there snaps to.  Assumes every page has the width of the current one.
+     */
+    private int itemForScrollX(int x) {
+        final int width = getClientWidth();
+        if (mAdapter == null || mAdapter.getCount() == 0 || width <= 0) return mCurItem;
+        final float pageWidth = width * mAdapter.getPageWidth(mCurItem) + mPageMargin;
+        final int item = Math.round(x / pageWidth);
+        return Math.max(0, Math.min(item, mAdapter.getCount() - 1));
+    }
+
     void setCurrentItemInternal(int item, boolean smoothScroll, boolean always) {
         setCurrentItemInternal(item, smoothScroll, always, 0);
     }
@@ -2313,6 +2338,11 @@ public class VelocityViewPager extends ViewGroup implements View.OnClickListener
         mFlinging = (velocity > 0) ? FLINGING_LEFT : FLINGING_RIGHT;
 
         setScrollState(SCROLL_STATE_SETTLING);
+        if (mOnFlingListener != null) {
+            final int fromItem = itemForScrollX(sx);
+            final int toItem = itemForScrollX(mScroller.getFinalX());
+            mOnFlingListener.onFling(fromItem, toItem);
+        }
     }
 
     @Override
@@ -2951,6 +2981,13 @@ public class VelocityViewPager extends ViewGroup implements View.OnClickListener
         }
     }
 
+    /**
+     * Set a listener that is told where each fling will land as soon as it starts.
+     */
+    public void setOnFlingListener(OnFlingListener listener) {
+        mOnFlingListener = listener;
+    }
+
     public void setOnItemClickListener(OnItemClickListener onItemClickListener) {
         if (mOnItemClickListener != onItemClickListener) {
             mOnItemClickListener = onItemClickListener;
@@ -3084,6 +3121,18 @@ public class VelocityViewPager extends ViewGroup implements View.OnClickListener
         }
     }
 
+    /**
+     * Callback for flings, invoked when the user lifts a finger fast enough to fling.
+     */
+    public interface OnFlingListener {
+        /**
+         * @param fromItem page under the scroll position when the fling started
+         * @param toItem   page the fling is predicted to settle on; every page between the two
+         *                 will scroll past
+         */
+        void onFling(int fromItem, int toItem);
+    }
+
     public interface OnItemClickListener {
         void onItemClick(Object object, View view, int position);
     }
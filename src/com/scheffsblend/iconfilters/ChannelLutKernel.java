@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+/**
+ * A {@link ColorMatrixKernel} for matrices without cross channel terms, such as those built from
+ * brightness, contrast, alpha, invert and tint.  Each output channel then depends only on the
+ * same input channel, so the matrix is baked into four 256 entry tables and a pixel costs four
+ * table loads.  Output is identical to {@link ColorMatrixKernel}.
+ */
+public class ChannelLutKernel extends ColorMatrixKernel {
+    private static final int LUT_SIZE = 256;
+
+    private final byte[] mRed = new byte[LUT_SIZE];
+    private final byte[] mGreen = new byte[LUT_SIZE];
+    private final byte[] mBlue = new byte[LUT_SIZE];
+    private final byte[] mAlpha = new byte[LUT_SIZE];
+
+    /**
+     * @throws IllegalArgumentException if the matrix is not {@link #isDiagonal diagonal}
+     */
+    public ChannelLutKernel(float[] matrix) {
+        super(matrix);
+        if (!isDiagonal(mMatrix)) {
+            throw new IllegalArgumentException("Color matrix has cross channel terms");
+        }
+        fill(mRed, mMatrix[0], mMatrix[4]);
+        fill(mGreen, mMatrix[6], mMatrix[9]);
+        fill(mBlue, mMatrix[12], mMatrix[14]);
+        fill(mAlpha, mMatrix[18], mMatrix[19]);
+    }
+
+    /**
+     * Returns true if every output channel of matrix depends only on the matching input
+     * channel and all coefficients are finite, which is what a lookup table requires.
+     */
+    public static boolean isDiagonal(float[] matrix) {
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 5; col++) {
+                float value = matrix[row * 5 + col];
+                if (Float.isNaN(value) || Float.isInfinite(value)) return false;
+                if (col != row && col != 4 && value != 0) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the table for a channel into out, one unsigned byte per input level.
+     *
+     * @param channel 0 through 3 for red, green, blue and alpha
+     */
+    public byte[] getLut(int channel, byte[] out) {
+        byte[] lut;
+        switch (channel) {
+            case 0:
+                lut = mRed;
+                break;
+            case 1:
+                lut = mGreen;
+                break;
+            case 2:
+                lut = mBlue;
+                break;
+            case 3:
+                lut = mAlpha;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid channel " + channel);
+        }
+        System.arraycopy(lut, 0, out, 0, LUT_SIZE);
+        return out;
+    }
+
+    @Override
+    public int filter(int color) {
+        return ((mAlpha[color >>> 24] & 0xff) << 24)
+                | ((mRed[(color >> 16) & 0xff] & 0xff) << 16)
+                | ((mGreen[(color >> 8) & 0xff] & 0xff) << 8)
+                | (mBlue[color & 0xff] & 0xff);
+    }
+
+    @Override
+    public void filter(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dst.length, dstOffset, count);
+
+        final byte[] red = mRed;
+        final byte[] green = mGreen;
+        final byte[] blue = mBlue;
+        final byte[] alpha = mAlpha;
+        for (int i = 0; i < count; i++) {
+            final int color = src[srcOffset + i];
+            dst[dstOffset + i] = ((alpha[color >>> 24] & 0xff) << 24)
+                    | ((red[(color >> 16) & 0xff] & 0xff) << 16)
+                    | ((green[(color >> 8) & 0xff] & 0xff) << 8)
+                    | (blue[color & 0xff] & 0xff);
+        }
+    }
+
+    private static void fill(byte[] lut, float scale, float translate) {
+        for (int i = 0; i < LUT_SIZE; i++) {
+            lut[i] = (byte) clamp(scale * i + translate);
+        }
+    }
+}
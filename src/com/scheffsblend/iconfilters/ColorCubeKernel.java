@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * A {@link ColorMatrixKernel} that samples a filter into an N x N x N RGB lookup cube and
+ * applies it with tetrahedral interpolation, so the cost per pixel does not depend on how many
+ * stages the filter has.
+ *
+ * Alpha is handled outside the cube: the alpha row is applied directly, and the contribution of
+ * input alpha to the color rows is added after interpolation, so a cube only needs to be indexed
+ * by RGB.  The cube holds unclamped values and results are clamped after interpolation, the
+ * same as the matrix kernels.
+ *
+ * Because every current stage is affine, interpolation reproduces the matrix to within float
+ * rounding; the cube becomes an approximation only once non-linear stages are sampled into it.
+ */
+public class ColorCubeKernel extends ColorMatrixKernel {
+    public static final int MIN_SIZE = 2;
+    public static final int MAX_SIZE = 65;
+    public static final int DEFAULT_SIZE = 17;
+
+    private final int mSize;
+    private final float[] mCube;
+
+    public ColorCubeKernel(float[] matrix) {
+        this(matrix, DEFAULT_SIZE);
+    }
+
+    /**
+     * @param size number of lattice points along each axis, for example 17 or 33
+     */
+    public ColorCubeKernel(float[] matrix, int size) {
+        super(matrix);
+        if (size < MIN_SIZE || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Cube size must be between " + MIN_SIZE + " and "
+                    + MAX_SIZE);
+        }
+        mSize = size;
+        mCube = new float[size * size * size * 3];
+
+        final float[] m = mMatrix;
+        final float step = 255f / (size - 1);
+        int index = 0;
+        // red varies fastest, matching the .cube file layout
+        for (int bi = 0; bi < size; bi++) {
+            final float b = bi * step;
+            for (int gi = 0; gi < size; gi++) {
+                final float g = gi * step;
+                for (int ri = 0; ri < size; ri++) {
+                    final float r = ri * step;
+                    mCube[index++] = m[0] * r + m[1] * g + m[2] * b + m[4];
+                    mCube[index++] = m[5] * r + m[6] * g + m[7] * b + m[9];
+                    mCube[index++] = m[10] * r + m[11] * g + m[12] * b + m[14];
+                }
+            }
+        }
+    }
+
+    /**
+     * Composes chain and bakes it into a cube with the given number of lattice points per axis.
+     */
+    public static ColorCubeKernel fromChain(FilterChain chain, int size) {
+        ColorMatrixComposer composer = new ColorMatrixComposer();
+        chain.compose(composer);
+        return new ColorCubeKernel(composer.getArray(), size);
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    @Override
+    public int filter(int color) {
+        final float[] m = mMatrix;
+        final int n1 = mSize - 1;
+        final float scale = n1 / 255f;
+        final float[] cube = mCube;
+        final int strideG = mSize * 3;
+        final int strideB = mSize * strideG;
+
+        final int r = (color >> 16) & 0xff;
+        final int g = (color >> 8) & 0xff;
+        final int b = color & 0xff;
+        final float a = color >>> 24;
+
+        final float fr = r * scale;
+        final float fg = g * scale;
+        final float fb = b * scale;
+        final int ir = Math.min((int) fr, n1 - 1);
+        final int ig = Math.min((int) fg, n1 - 1);
+        final int ib = Math.min((int) fb, n1 - 1);
+        final float dr = fr - ir;
+        final float dg = fg - ig;
+        final float db = fb - ib;
+
+        // pick the tetrahedron containing the point and walk its edges from c000 to c111
+        final int c000 = ib * strideB + ig * strideG + ir * 3;
+        final int c111 = c000 + strideB + strideG + 3;
+        int c1;
+        int c2;
+        float w1;
+        float w2;
+        float w3;
+        if (dr >= dg) {
+            if (dg >= db) {
+                c1 = c000 + 3;
+                c2 = c1 + strideG;
+                w1 = dr;
+                w2 = dg;
+                w3 = db;
+            } else if (dr >= db) {
+                c1 = c000 + 3;
+                c2 = c1 + strideB;
+                w1 = dr;
+                w2 = db;
+                w3 = dg;
+            } else {
+                c1 = c000 + strideB;
+                c2 = c1 + 3;
+                w1 = db;
+                w2 = dr;
+                w3 = dg;
+            }
+        } else {
+            if (db >= dg) {
+                c1 = c000 + strideB;
+                c2 = c1 + strideG;
+                w1 = db;
+                w2 = dg;
+                w3 = dr;
+            } else if (db >= dr) {
+                c1 = c000 + strideG;
+                c2 = c1 + strideB;
+                w1 = dg;
+                w2 = db;
+                w3 = dr;
+            } else {
+                c1 = c000 + strideG;
+                c2 = c1 + 3;
+                w1 = dg;
+                w2 = dr;
+                w3 = db;
+            }
+        }
+        final float w0 = 1 - w1;
+        final float v1 = w1 - w2;
+        final float v2 = w2 - w3;
+
+        float outR = w0 * cube[c000] + v1 * cube[c1] + v2 * cube[c2] + w3 * cube[c111];
+        float outG = w0 * cube[c000 + 1] + v1 * cube[c1 + 1] + v2 * cube[c2 + 1]
+                + w3 * cube[c111 + 1];
+        float outB = w0 * cube[c000 + 2] + v1 * cube[c1 + 2] + v2 * cube[c2 + 2]
+                + w3 * cube[c111 + 2];
+        return pack(m[15] * r + m[16] * g + m[17] * b + m[18] * a + m[19],
+                outR + m[3] * a, outG + m[8] * a, outB + m[13] * a);
+    }
+
+    @Override
+    public void filter(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dst.length, dstOffset, count);
+
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i] = filter(src[srcOffset + i]);
+        }
+    }
+
+    /**
+     * Writes the cube in the Adobe/Resolve .cube text format: a LUT_3D_SIZE header followed by
+     * one "R G B" line per lattice point with red varying fastest.  Values are clamped to
+     * [0, 1].  Alpha terms cannot be expressed in the format and are left out.
+     *
+     * @param title optional title written to the TITLE line, may be null
+     */
+    public void writeCube(Appendable out, String title) throws IOException {
+        if (title != null) {
+            out.append("TITLE \"").append(title.replace('"', '\'')).append("\"\n");
+        }
+        out.append("LUT_3D_SIZE ").append(Integer.toString(mSize)).append('\n');
+        out.append("DOMAIN_MIN 0.0 0.0 0.0\n");
+        out.append("DOMAIN_MAX 1.0 1.0 1.0\n");
+        for (int i = 0; i < mCube.length; i += 3) {
+            out.append(String.format(Locale.US, "%.6f %.6f %.6f\n", toUnit(mCube[i]),
+                    toUnit(mCube[i + 1]), toUnit(mCube[i + 2])));
+        }
+    }
+
+    private static float toUnit(float value) {
+        if (!(value > 0)) return 0;
+        return Math.min(value / 255f, 1f);
+    }
+}
@@ -15,159 +15,70 @@
  */
 package com.scheffsblend.iconfilters;
 
-import android.graphics.Color;
 import android.graphics.ColorMatrix;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class ColorFilterUtils {
     /**
-     * See the following links for reference
-     * http://groups.google.com/group/android-developers/browse_thread/thread/9e215c83c3819953
-     * http://gskinner.com/blog/archives/2007/12/colormatrix_cla.html
-     * @param value
+     * Composes a chain of filters into a single {@link ColorMatrix}.  Stages are multiplied in
+     * place by a {@link ColorMatrixComposer} so the only object allocated per build is the
+     * resulting ColorMatrix.  A builder can be reused by calling {@link #reset()}.
      */
-    public static ColorMatrix adjustHue(float value) {
-        ColorMatrix cm = new ColorMatrix();
-        value = value / 180 * (float) Math.PI;
-        if (value != 0) {
-            float cosVal = (float) Math.cos(value);
-            float sinVal = (float) Math.sin(value);
-            float lumR = 0.213f;
-            float lumG = 0.715f;
-            float lumB = 0.072f;
-            float[] mat = new float[]{
-                    lumR + cosVal * (1 - lumR) + sinVal * (-lumR),
-                    lumG + cosVal * (-lumG) + sinVal * (-lumG),
-                    lumB + cosVal * (-lumB) + sinVal * (1 - lumB), 0, 0,
-                    lumR + cosVal * (-lumR) + sinVal * (0.143f),
-                    lumG + cosVal * (1 - lumG) + sinVal * (0.140f),
-                    lumB + cosVal * (-lumB) + sinVal * (-0.283f), 0, 0,
-                    lumR + cosVal * (-lumR) + sinVal * (-(1 - lumR)),
-                    lumG + cosVal * (-lumG) + sinVal * (lumG),
-                    lumB + cosVal * (1 - lumB) + sinVal * (lumB), 0, 0,
-                    0, 0, 0, 1, 0,
-                    0, 0, 0, 0, 1};
-            cm.set(mat);
-        }
-        return cm;
-    }
-
-    public static ColorMatrix adjustSaturation(float saturation) {
-        saturation = saturation / 100;
-        ColorMatrix cm = new ColorMatrix();
-        cm.setSaturation(saturation);
-
-        return cm;
-    }
-
-    public static ColorMatrix invertColors() {
-        float[] matrix = {
-                -1, 0, 0, 0, 255, //red
-                0, -1, 0, 0, 255, //green
-                0, 0, -1, 0, 255, //blue
-                0, 0, 0, 1, 0 //alpha
-        };
-
-        return new ColorMatrix(matrix);
-    }
-
-    public static ColorMatrix adjustBrightness(float brightness) {
-        brightness = brightness / 100;
-        ColorMatrix cm = new ColorMatrix();
-        cm.setScale(brightness, brightness, brightness, 1);
-
-        return cm;
-    }
-
-    public static ColorMatrix adjustContrast(float contrast) {
-        contrast = contrast / 100 + 1;
-        float o = (-0.5f * contrast + 0.5f) * 255;
-        float[] matrix = {
-                contrast, 0, 0, 0, o, //red
-                0, contrast, 0, 0, o, //green
-                0, 0, contrast, 0, o, //blue
-                0, 0, 0, 1, 0 //alpha
-        };
-
-        return new ColorMatrix(matrix);
-    }
-
-    public static ColorMatrix adjustAlpha(float alpha) {
-        alpha = alpha / 100;
-        ColorMatrix cm = new ColorMatrix();
-        cm.setScale(1, 1, 1, alpha);
-
-        return cm;
-    }
-
-    public static ColorMatrix applyTint(int color) {
-        float alpha = Color.alpha(color) / 255f;
-        float red = Color.red(color) * alpha;
-        float green = Color.green(color) * alpha;
-        float blue = Color.blue(color) * alpha;
-
-        float[] matrix = {
-                1, 0, 0, 0, red, //red
-                0, 1, 0, 0, green, //green
-                0, 0, 1, 0, blue, //blue
-                0, 0, 0, 1, 0 //alpha
-        };
-
-        return new ColorMatrix(matrix);
-    }
-
     public static class Builder {
-        private List<ColorMatrix> mMatrixList;
+        private ColorMatrixComposer mComposer;
 
         public Builder() {
-            mMatrixList = new ArrayList<ColorMatrix>();
+            mComposer = new ColorMatrixComposer();
+        }
+
+        public Builder reset() {
+            mComposer.reset();
+            return this;
         }
 
         public Builder hue(float value) {
-            mMatrixList.add(adjustHue(value));
+            mComposer.hue(value);
             return this;
         }
 
         public Builder saturate(float saturation) {
-            mMatrixList.add(adjustSaturation(saturation));
+            mComposer.saturate(saturation);
             return this;
         }
 
         public Builder brightness(float brightness) {
-            mMatrixList.add(adjustBrightness(brightness));
+            mComposer.brightness(brightness);
             return this;
         }
 
         public Builder contrast(float contrast) {
-            mMatrixList.add(adjustContrast(contrast));
+            mComposer.contrast(contrast);
             return this;
         }
 
         public Builder alpha(float alpha) {
-            mMatrixList.add(adjustAlpha(alpha));
+            mComposer.alpha(alpha);
             return this;
         }
 
         public Builder invertColors() {
-            mMatrixList.add(ColorFilterUtils.invertColors());
+            mComposer.invertColors();
             return this;
         }
 
         public Builder tint(int color) {
-            mMatrixList.add(applyTint(color));
+            mComposer.tint(color);
+            return this;
+        }
+
+        public Builder chain(FilterChain chain) {
+            chain.compose(mComposer);
             return this;
         }
 
         public ColorMatrix build() {
-            if (mMatrixList == null || mMatrixList.size() == 0) return null;
+            if (mComposer.getStageCount() == 0) return null;
 
-            ColorMatrix colorMatrix = new ColorMatrix();
-            for (ColorMatrix cm : mMatrixList) {
-                colorMatrix.postConcat(cm);
-            }
-            return colorMatrix;
+            return new ColorMatrix(mComposer.getArray());
         }
     }
 }
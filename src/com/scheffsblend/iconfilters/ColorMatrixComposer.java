@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+/**
+ * Composes 4x5 color matrices in the same layout used by {@link android.graphics.ColorMatrix}
+ * without allocating per stage.  Each stage is written into a reusable scratch array and
+ * multiplied into one of two ping-pong buffers, so a whole chain can be composed with the three
+ * float[20] arrays owned by this object.
+ *
+ * This class has no Android dependencies so it can be used and tested on a plain JVM.
+ */
+public class ColorMatrixComposer {
+    public static final int MATRIX_SIZE = 20;
+
+    private static final float LUM_R = 0.213f;
+    private static final float LUM_G = 0.715f;
+    private static final float LUM_B = 0.072f;
+
+    private float[] mCurrent = new float[MATRIX_SIZE];
+    private float[] mNext = new float[MATRIX_SIZE];
+    private final float[] mStage = new float[MATRIX_SIZE];
+    private int mStageCount;
+
+    public ColorMatrixComposer() {
+        reset();
+    }
+
+    /**
+     * Resets the composed matrix to identity and clears the stage count.
+     */
+    public void reset() {
+        setIdentity(mCurrent);
+        mStageCount = 0;
+    }
+
+    /**
+     * @return number of stages concatenated since the last {@link #reset()}
+     */
+    public int getStageCount() {
+        return mStageCount;
+    }
+
+    /**
+     * Returns the composed matrix.  The returned array is owned by this composer and is only
+     * valid until the next call that modifies it, so copy it if it needs to be kept.
+     */
+    public float[] getArray() {
+        return mCurrent;
+    }
+
+    /**
+     * Concatenates the given matrix so that it is applied after the matrices already composed,
+     * the same as {@link android.graphics.ColorMatrix#postConcat}.
+     */
+    public ColorMatrixComposer postConcat(float[] matrix) {
+        concat(matrix, mCurrent, mNext);
+        float[] tmp = mCurrent;
+        mCurrent = mNext;
+        mNext = tmp;
+        mStageCount++;
+        return this;
+    }
+
+    public ColorMatrixComposer hue(float value) {
+        setHue(mStage, value);
+        return postConcat(mStage);
+    }
+
+    public ColorMatrixComposer saturate(float saturation) {
+        setSaturation(mStage, saturation);
+        return postConcat(mStage);
+    }
+
+    public ColorMatrixComposer brightness(float brightness) {
+        setBrightness(mStage, brightness);
+        return postConcat(mStage);
+    }
+
+    public ColorMatrixComposer contrast(float contrast) {
+        setContrast(mStage, contrast);
+        return postConcat(mStage);
+    }
+
+    public ColorMatrixComposer alpha(float alpha) {
+        setAlpha(mStage, alpha);
+        return postConcat(mStage);
+    }
+
+    public ColorMatrixComposer invertColors() {
+        setInvert(mStage);
+        return postConcat(mStage);
+    }
+
+    public ColorMatrixComposer tint(int color) {
+        setTint(mStage, color);
+        return postConcat(mStage);
+    }
+
+    /**
+     * Computes out = a * b, treating both as 5x5 matrices with an implicit last row of
+     * [0, 0, 0, 0, 1].  The result applies b first and then a.  out must not be the same array
+     * as a or b.
+     */
+    public static void concat(float[] a, float[] b, float[] out) {
+        concat(a, 0, b, 0, out, 0);
+    }
+
+    /**
+     * Same as {@link #concat(float[], float[], float[])} for matrices stored at the given
+     * offsets, so packed arrays of matrices can be multiplied without copying.  The output
+     * range must not overlap either input.
+     */
+    public static void concat(float[] a, int aOffset, float[] b, int bOffset, float[] out,
+            int outOffset) {
+        int index = outOffset;
+        for (int j = aOffset; j < aOffset + MATRIX_SIZE; j += 5) {
+            final float a0 = a[j];
+            final float a1 = a[j + 1];
+            final float a2 = a[j + 2];
+            final float a3 = a[j + 3];
+            for (int i = bOffset; i < bOffset + 4; i++) {
+                out[index++] = a0 * b[i] + a1 * b[i + 5] + a2 * b[i + 10] + a3 * b[i + 15];
+            }
+            out[index++] = a0 * b[bOffset + 4] + a1 * b[bOffset + 9] + a2 * b[bOffset + 14]
+                    + a3 * b[bOffset + 19] + a[j + 4];
+        }
+    }
+
+    public static void setIdentity(float[] m) {
+        for (int i = 0; i < MATRIX_SIZE; i++) {
+            m[i] = 0;
+        }
+        m[0] = m[6] = m[12] = m[18] = 1;
+    }
+
+    public static void setScale(float[] m, float rScale, float gScale, float bScale,
+            float aScale) {
+        for (int i = 0; i < MATRIX_SIZE; i++) {
+            m[i] = 0;
+        }
+        m[0] = rScale;
+        m[6] = gScale;
+        m[12] = bScale;
+        m[18] = aScale;
+    }
+
+    /**
+     * See the following links for reference
+     * http://groups.google.com/group/android-developers/browse_thread/thread/9e215c83c3819953
+     * http://gskinner.com/blog/archives/2007/12/colormatrix_cla.html
+     * The matrix is affine in the cosine and sine of the angle.  For integer rotations in
+     * [-180, 180] both are read from {@link HueRotationTable}; for any other angle they are
+     * computed.  Either way the matrix is exact.
+     * @param value hue rotation in degrees
+     */
+    public static void setHue(float[] m, float value) {
+        float radians = value / 180 * (float) Math.PI;
+        if (radians == 0) {
+            setIdentity(m);
+            return;
+        }
+        int degrees = (int) value;
+        if (degrees == value && HueRotationTable.contains(degrees)) {
+            setHue(m, HueRotationTable.cos(degrees), HueRotationTable.sin(degrees));
+        } else {
+            setHue(m, (float) Math.cos(radians), (float) Math.sin(radians));
+        }
+    }
+
+    /**
+     * Sets m to the hue rotation whose angle has the given cosine and sine.
+     */
+    static void setHue(float[] m, float cosVal, float sinVal) {
+        m[0] = LUM_R + cosVal * (1 - LUM_R) + sinVal * (-LUM_R);
+        m[1] = LUM_G + cosVal * (-LUM_G) + sinVal * (-LUM_G);
+        m[2] = LUM_B + cosVal * (-LUM_B) + sinVal * (1 - LUM_B);
+        m[3] = 0;
+        m[4] = 0;
+        m[5] = LUM_R + cosVal * (-LUM_R) + sinVal * (0.143f);
+        m[6] = LUM_G + cosVal * (1 - LUM_G) + sinVal * (0.140f);
+        m[7] = LUM_B + cosVal * (-LUM_B) + sinVal * (-0.283f);
+        m[8] = 0;
+        m[9] = 0;
+        m[10] = LUM_R + cosVal * (-LUM_R) + sinVal * (-(1 - LUM_R));
+        m[11] = LUM_G + cosVal * (-LUM_G) + sinVal * (LUM_G);
+        m[12] = LUM_B + cosVal * (1 - LUM_B) + sinVal * (LUM_B);
+        m[13] = 0;
+        m[14] = 0;
+        m[15] = 0;
+        m[16] = 0;
+        m[17] = 0;
+        m[18] = 1;
+        m[19] = 0;
+    }
+
+    /**
+     * Same as {@link android.graphics.ColorMatrix#setSaturation} with the saturation given as
+     * a percentage.
+     */
+    public static void setSaturation(float[] m, float saturation) {
+        saturation = saturation / 100;
+        setIdentity(m);
+        float invSat = 1 - saturation;
+        float r = LUM_R * invSat;
+        float g = LUM_G * invSat;
+        float b = LUM_B * invSat;
+        m[0] = r + saturation;
+        m[1] = g;
+        m[2] = b;
+        m[5] = r;
+        m[6] = g + saturation;
+        m[7] = b;
+        m[10] = r;
+        m[11] = g;
+        m[12] = b + saturation;
+    }
+
+    public static void setInvert(float[] m) {
+        setScale(m, -1, -1, -1, 1);
+        m[4] = m[9] = m[14] = 255;
+    }
+
+    public static void setBrightness(float[] m, float brightness) {
+        brightness = brightness / 100;
+        setScale(m, brightness, brightness, brightness, 1);
+    }
+
+    public static void setContrast(float[] m, float contrast) {
+        contrast = contrast / 100 + 1;
+        float o = (-0.5f * contrast + 0.5f) * 255;
+        setScale(m, contrast, contrast, contrast, 1);
+        m[4] = m[9] = m[14] = o;
+    }
+
+    public static void setAlpha(float[] m, float alpha) {
+        alpha = alpha / 100;
+        setScale(m, 1, 1, 1, alpha);
+    }
+
+    public static void setTint(float[] m, int color) {
+        float alpha = (color >>> 24) / 255f;
+        setIdentity(m);
+        m[4] = ((color >> 16) & 0xff) * alpha;
+        m[9] = ((color >> 8) & 0xff) * alpha;
+        m[14] = (color & 0xff) * alpha;
+    }
+}
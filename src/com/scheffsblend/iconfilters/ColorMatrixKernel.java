@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import java.nio.BufferOverflowException;
+import java.nio.IntBuffer;
+
+/**
+ * Applies a 4x5 color matrix to packed ARGB pixels in software, so filters can be rendered and
+ * checked without {@link android.graphics.ColorMatrixColorFilter}.
+ *
+ * Pixels are non-premultiplied ARGB, as returned by {@link android.graphics.Bitmap#getPixels}.
+ * Each output channel is the matrix row applied to (R, G, B, A, 1) with channels and the
+ * translation column in [0, 255] units, clamped to [0, 255] and rounded to nearest, which is
+ * how ColorMatrix documents its transform.
+ *
+ * Kernels are immutable once created and can be shared between threads.
+ */
+public class ColorMatrixKernel {
+    protected final float[] mMatrix;
+
+    public ColorMatrixKernel(float[] matrix) {
+        if (matrix.length != ColorMatrixComposer.MATRIX_SIZE) {
+            throw new IllegalArgumentException("Color matrix must have "
+                    + ColorMatrixComposer.MATRIX_SIZE + " elements");
+        }
+        mMatrix = matrix.clone();
+    }
+
+    /**
+     * Returns the fastest kernel that gives identical output for matrix: per channel lookup
+     * tables when the matrix has no cross channel terms and the full multiply-add kernel
+     * otherwise.
+     */
+    public static ColorMatrixKernel compile(float[] matrix) {
+        if (ChannelLutKernel.isDiagonal(matrix)) {
+            return new ChannelLutKernel(matrix);
+        }
+        return new ColorMatrixKernel(matrix);
+    }
+
+    /**
+     * Same as {@link #compile(float[])} when linearLight is false; otherwise returns a
+     * {@link LinearLightKernel} that applies the matrix to linearized colors.
+     */
+    public static ColorMatrixKernel compile(float[] matrix, boolean linearLight) {
+        return linearLight ? new LinearLightKernel(matrix) : compile(matrix);
+    }
+
+    /**
+     * Copies this kernel's matrix into out.
+     */
+    public float[] getMatrix(float[] out) {
+        System.arraycopy(mMatrix, 0, out, 0, ColorMatrixComposer.MATRIX_SIZE);
+        return out;
+    }
+
+    /**
+     * Filters a single ARGB color.
+     */
+    public int filter(int color) {
+        final float[] m = mMatrix;
+        final float r = (color >> 16) & 0xff;
+        final float g = (color >> 8) & 0xff;
+        final float b = color & 0xff;
+        final float a = color >>> 24;
+        return pack(m[15] * r + m[16] * g + m[17] * b + m[18] * a + m[19],
+                m[0] * r + m[1] * g + m[2] * b + m[3] * a + m[4],
+                m[5] * r + m[6] * g + m[7] * b + m[8] * a + m[9],
+                m[10] * r + m[11] * g + m[12] * b + m[13] * a + m[14]);
+    }
+
+    /**
+     * Filters count pixels from src into dst.  src and dst may be the same array, in which case
+     * the ranges must either be identical or not overlap.
+     */
+    public void filter(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dst.length, dstOffset, count);
+
+        final float[] m = mMatrix;
+        final float m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3], m4 = m[4];
+        final float m5 = m[5], m6 = m[6], m7 = m[7], m8 = m[8], m9 = m[9];
+        final float m10 = m[10], m11 = m[11], m12 = m[12], m13 = m[13], m14 = m[14];
+        final float m15 = m[15], m16 = m[16], m17 = m[17], m18 = m[18], m19 = m[19];
+        for (int i = 0; i < count; i++) {
+            final int color = src[srcOffset + i];
+            final float r = (color >> 16) & 0xff;
+            final float g = (color >> 8) & 0xff;
+            final float b = color & 0xff;
+            final float a = color >>> 24;
+            dst[dstOffset + i] = pack(m15 * r + m16 * g + m17 * b + m18 * a + m19,
+                    m0 * r + m1 * g + m2 * b + m3 * a + m4,
+                    m5 * r + m6 * g + m7 * b + m8 * a + m9,
+                    m10 * r + m11 * g + m12 * b + m13 * a + m14);
+        }
+    }
+
+    /**
+     * Filters the remaining pixels of src into dst, advancing the position of both buffers the
+     * same way a bulk {@link IntBuffer#put(IntBuffer)} would.
+     *
+     * @throws BufferOverflowException if dst has fewer remaining pixels than src
+     */
+    public void filter(IntBuffer src, IntBuffer dst) {
+        final int count = src.remaining();
+        if (dst.remaining() < count) throw new BufferOverflowException();
+
+        if (src.hasArray() && dst.hasArray() && !dst.isReadOnly()) {
+            filter(src.array(), src.arrayOffset() + src.position(),
+                    dst.array(), dst.arrayOffset() + dst.position(), count);
+            src.position(src.position() + count);
+            dst.position(dst.position() + count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                dst.put(filter(src.get()));
+            }
+        }
+    }
+
+    /**
+     * Clamps a channel value to [0, 255] and rounds it to the nearest integer.  NaN maps to 0.
+     */
+    protected static int clamp(float value) {
+        if (value >= 255f) return 255;
+        if (value > 0f) return (int) (value + 0.5f);
+        return 0;
+    }
+
+    protected static int pack(float a, float r, float g, float b) {
+        return (clamp(a) << 24) | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+    }
+
+    protected static void checkRange(int length, int offset, int count) {
+        if ((offset | count) < 0 || offset > length - count) {
+            throw new ArrayIndexOutOfBoundsException("offset=" + offset + ", count=" + count
+                    + ", length=" + length);
+        }
+    }
+}
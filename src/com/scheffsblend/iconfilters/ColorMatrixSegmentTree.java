@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+/**
+ * Keeps the partial products of a {@link FilterChain} in a segment tree so the composed matrix
+ * can be updated incrementally.  Changing the value of one stage recomputes only the log(n)
+ * products on the path from its leaf to the root, and swapping two stages recomputes two paths.
+ *
+ * Leaves are keyed by stage position, so the chain should be passed unoptimized, one stage per
+ * filter item.  A stage the {@link FilterChainOptimizer} would drop becomes an identity leaf
+ * instead of shifting every later stage onto a different leaf.
+ *
+ * All matrices are stored in one packed float array, 20 floats per node.  Leaves past the end
+ * of the chain hold the identity matrix.
+ */
+public class ColorMatrixSegmentTree {
+    private static final int SIZE = ColorMatrixComposer.MATRIX_SIZE;
+    private static final int MIN_CAPACITY = 8;
+
+    private float[] mNodes;
+    private int mCapacity;
+    private final FilterChain mStages = new FilterChain();
+    private final float[] mStage = new float[SIZE];
+    private int mUpdateCount;
+
+    public ColorMatrixSegmentTree() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Updates the tree to compose the given chain, recomputing only the products that cover
+     * stages which differ from the previously set chain.
+     */
+    public void setChain(FilterChain chain) {
+        int size = chain.size();
+        if (size > mCapacity) {
+            int capacity = mCapacity;
+            while (capacity < size) capacity *= 2;
+            allocate(capacity);
+            mStages.clear();
+        }
+
+        int oldSize = mStages.size();
+        for (int i = 0; i < size; i++) {
+            int type = chain.getType(i);
+            double value = chain.getValue(i);
+            if (i < oldSize) {
+                if (mStages.getType(i) == type && mStages.getValue(i) == value) continue;
+                mStages.set(i, type, value);
+            } else {
+                mStages.add(type, value);
+            }
+            if (FilterChainOptimizer.isIdentity(type, value)) {
+                ColorMatrixComposer.setIdentity(mStage);
+            } else {
+                FilterChain.setStageMatrix(mStage, type, value);
+            }
+            setLeaf(i, mStage);
+        }
+        if (oldSize > size) {
+            ColorMatrixComposer.setIdentity(mStage);
+            for (int i = oldSize - 1; i >= size; i--) {
+                mStages.removeLast();
+                setLeaf(i, mStage);
+            }
+        }
+    }
+
+    /**
+     * Copies the product of every stage into out.
+     */
+    public float[] getMatrix(float[] out) {
+        System.arraycopy(mNodes, SIZE, out, 0, SIZE);
+        return out;
+    }
+
+    public int size() {
+        return mStages.size();
+    }
+
+    /**
+     * @return number of node products recomputed so far, useful for verifying incremental
+     *         behavior
+     */
+    public int getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    private void setLeaf(int index, float[] matrix) {
+        int node = mCapacity + index;
+        System.arraycopy(matrix, 0, mNodes, node * SIZE, SIZE);
+        // a parent applies its left (earlier) child first, then its right child
+        for (node >>= 1; node > 0; node >>= 1) {
+            int left = node << 1;
+            ColorMatrixComposer.concat(mNodes, (left + 1) * SIZE, mNodes, left * SIZE,
+                    mNodes, node * SIZE);
+            mUpdateCount++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        mCapacity = capacity;
+        mNodes = new float[capacity * 2 * SIZE];
+        for (int node = 1; node < capacity * 2; node++) {
+            int offset = node * SIZE;
+            mNodes[offset] = mNodes[offset + 6] = mNodes[offset + 12] = mNodes[offset + 18] = 1;
+        }
+    }
+}
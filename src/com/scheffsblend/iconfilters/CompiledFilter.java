@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, fully composed filter: the color matrix, the fingerprint of the chain it was
+ * built from and the kernel chosen to render it.
+ *
+ * Every field is final and nothing reachable from it is modified after construction, so a
+ * CompiledFilter can be handed from the UI thread to render threads through any reference,
+ * volatile or not, without copying or locking.  Accessors that return arrays copy them.
+ */
+public final class CompiledFilter {
+    public static final int KERNEL_GENERAL = 0;
+    public static final int KERNEL_DIAGONAL = 1;
+    public static final int KERNEL_CUBE = 2;
+    public static final int KERNEL_STAGED = 3;
+    public static final int KERNEL_LINEAR_LIGHT = 4;
+    public static final int KERNEL_FIXED_POINT = 5;
+
+    private final float[] mMatrix;
+    private final long mFingerprint;
+    private final int mStageCount;
+    private final ColorMatrixKernel mKernel;
+    private final int mKernelType;
+
+    /**
+     * @param matrix     the composed matrix, copied
+     * @param fingerprint fingerprint of the chain matrix was composed from
+     * @param stageCount number of stages in that chain
+     * @param kernel     kernel to render with, or null to pick the fastest exact one
+     */
+    public CompiledFilter(float[] matrix, long fingerprint, int stageCount,
+            ColorMatrixKernel kernel) {
+        if (matrix.length != ColorMatrixComposer.MATRIX_SIZE) {
+            throw new IllegalArgumentException("Color matrix must have "
+                    + ColorMatrixComposer.MATRIX_SIZE + " elements");
+        }
+        mMatrix = matrix.clone();
+        mFingerprint = fingerprint;
+        mStageCount = stageCount;
+        mKernel = kernel != null ? kernel : ColorMatrixKernel.compile(mMatrix);
+        mKernelType = kernelTypeOf(mKernel);
+    }
+
+    /**
+     * Composes chain into a compiled filter whose kernel matches stage by stage clamping, as
+     * chosen by {@link StagedColorMatrixKernel#compile(FilterChain)}.  Pass the chain as
+     * listed, not optimized, so that clamps between stages are kept.
+     */
+    public static CompiledFilter compile(FilterChain chain) {
+        return compile(chain, false);
+    }
+
+    /**
+     * Same as {@link #compile(FilterChain)}, optionally rendering in linear light with a
+     * {@link LinearLightKernel}.  The linear light kernel applies the fused matrix without
+     * clamping between stages.
+     */
+    public static CompiledFilter compile(FilterChain chain, boolean linearLight) {
+        ColorMatrixComposer composer = new ColorMatrixComposer();
+        chain.compose(composer);
+        float[] matrix = composer.getArray();
+        ColorMatrixKernel kernel = linearLight ? new LinearLightKernel(matrix)
+                : StagedColorMatrixKernel.compile(chain);
+        return new CompiledFilter(matrix, chain.fingerprint(), chain.size(), kernel);
+    }
+
+    public long getFingerprint() {
+        return mFingerprint;
+    }
+
+    /**
+     * @return true if the chain had no stages, in which case the filter is the identity
+     */
+    public boolean isEmpty() {
+        return mStageCount == 0;
+    }
+
+    public int getStageCount() {
+        return mStageCount;
+    }
+
+    /**
+     * @return one of {@link #KERNEL_GENERAL}, {@link #KERNEL_DIAGONAL}, {@link #KERNEL_CUBE},
+     * {@link #KERNEL_STAGED}, {@link #KERNEL_LINEAR_LIGHT} or {@link #KERNEL_FIXED_POINT}
+     */
+    public int getKernelType() {
+        return mKernelType;
+    }
+
+    public ColorMatrixKernel getKernel() {
+        return mKernel;
+    }
+
+    public float getCoefficient(int index) {
+        return mMatrix[index];
+    }
+
+    /**
+     * Copies the composed matrix into out.
+     */
+    public float[] getMatrix(float[] out) {
+        System.arraycopy(mMatrix, 0, out, 0, ColorMatrixComposer.MATRIX_SIZE);
+        return out;
+    }
+
+    /**
+     * Copies the per channel lookup table for channel into out if this filter uses the
+     * diagonal kernel.
+     *
+     * @param channel 0 through 3 for red, green, blue and alpha
+     * @return out, or null if this filter has no per channel tables
+     */
+    public byte[] getChannelLut(int channel, byte[] out) {
+        if (mKernelType != KERNEL_DIAGONAL) return null;
+        return ((ChannelLutKernel) mKernel).getLut(channel, out);
+    }
+
+    /**
+     * Filters count pixels from src into dst with this filter's kernel.
+     */
+    public void filter(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        mKernel.filter(src, srcOffset, dst, dstOffset, count);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CompiledFilter)) return false;
+        CompiledFilter other = (CompiledFilter) o;
+        return mFingerprint == other.mFingerprint && mKernelType == other.mKernelType
+                && Arrays.equals(mMatrix, other.mMatrix);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mFingerprint ^ (mFingerprint >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledFilter[fingerprint=" + Long.toHexString(mFingerprint)
+                + ",stages=" + mStageCount + ",kernel=" + mKernelType + "]";
+    }
+
+    private static int kernelTypeOf(ColorMatrixKernel kernel) {
+        if (kernel instanceof ChannelLutKernel) return KERNEL_DIAGONAL;
+        if (kernel instanceof ColorCubeKernel) return KERNEL_CUBE;
+        if (kernel instanceof StagedColorMatrixKernel) return KERNEL_STAGED;
+        if (kernel instanceof LinearLightKernel) return KERNEL_LINEAR_LIGHT;
+        if (kernel instanceof FixedPointColorMatrixKernel) return KERNEL_FIXED_POINT;
+        return KERNEL_GENERAL;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded least recently used cache keyed by a {@link FilterChain#fingerprint()}.  Used to
+ * skip composing and allocating filters for chain configurations that were seen recently.
+ *
+ * All methods are synchronized so a cache can be shared between threads.
+ */
+public class FilterCache<V> {
+    private final LinkedHashMap<Long, V> mMap;
+    private final int mMaxEntries;
+    private int mHitCount;
+    private int mMissCount;
+
+    public FilterCache(int maxEntries) {
+        if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries <= 0");
+        mMaxEntries = maxEntries;
+        mMap = new LinkedHashMap<Long, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, V> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the value cached for fingerprint, marking it as most recently used, or null if
+     * there is none.
+     */
+    public synchronized V get(long fingerprint) {
+        V value = mMap.get(fingerprint);
+        if (value != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return value;
+    }
+
+    public synchronized void put(long fingerprint, V value) {
+        if (value == null) throw new NullPointerException("value == null");
+        mMap.put(fingerprint, value);
+    }
+
+    public synchronized void clear() {
+        mMap.clear();
+    }
+
+    public synchronized int size() {
+        return mMap.size();
+    }
+
+    public int getMaxSize() {
+        return mMaxEntries;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return String.format("FilterCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                mMaxEntries, mHitCount, mMissCount, hitPercent);
+    }
+}
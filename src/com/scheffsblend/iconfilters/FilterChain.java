@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+/**
+ * A compact, ordered list of filter stages.  Each stage is a filter type and a value, stored in
+ * parallel primitive arrays so a chain can be rebuilt from the UI without allocating.
+ *
+ * Values use the same units as the filter list: degrees for hue, percentages for saturation,
+ * brightness, contrast and alpha, 1 or 0 for invert, and the packed ARGB color for tint.
+ * Values are doubles so a tint color is held exactly and merged stages can be fractional.
+ */
+public class FilterChain {
+    public static final int TYPE_HUE = 0;
+    public static final int TYPE_SATURATION = 1;
+    public static final int TYPE_BRIGHTNESS = 2;
+    public static final int TYPE_CONTRAST = 3;
+    public static final int TYPE_ALPHA = 4;
+    public static final int TYPE_INVERT = 5;
+    public static final int TYPE_TINT = 6;
+
+    /**
+     * Names used for each type by the name attribute of theme filter elements, indexed by type.
+     */
+    static final String[] TYPE_NAMES = {
+            "hue", "saturation", "brightness", "contrast", "alpha", "invert", "tint"
+    };
+
+    /**
+     * Smallest, largest and default value the filter list allows for each type, indexed by
+     * type.  Tint colors may be any packed ARGB value.
+     */
+    private static final int[] MIN_VALUES = {-180, 0, 0, -100, 0, 0, Integer.MIN_VALUE};
+    private static final int[] MAX_VALUES = {180, 200, 200, 100, 100, 1, Integer.MAX_VALUE};
+    private static final int[] DEFAULT_VALUES = {0, 100, 100, 0, 100, 0, 0xff000000};
+
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private int[] mTypes;
+    private double[] mValues;
+    private int mSize;
+
+    public FilterChain() {
+        mTypes = new int[DEFAULT_CAPACITY];
+        mValues = new double[DEFAULT_CAPACITY];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    public FilterChain add(int type, double value) {
+        if (mSize == mTypes.length) {
+            int[] types = new int[mSize * 2];
+            double[] values = new double[mSize * 2];
+            System.arraycopy(mTypes, 0, types, 0, mSize);
+            System.arraycopy(mValues, 0, values, 0, mSize);
+            mTypes = types;
+            mValues = values;
+        }
+        mTypes[mSize] = type;
+        mValues[mSize] = value;
+        mSize++;
+        return this;
+    }
+
+    public int getType(int index) {
+        checkIndex(index);
+        return mTypes[index];
+    }
+
+    public double getValue(int index) {
+        checkIndex(index);
+        return mValues[index];
+    }
+
+    public void setValue(int index, double value) {
+        checkIndex(index);
+        mValues[index] = value;
+    }
+
+    public void set(int index, int type, double value) {
+        checkIndex(index);
+        mTypes[index] = type;
+        mValues[index] = value;
+    }
+
+    public void removeLast() {
+        if (mSize == 0) throw new IllegalStateException("Chain is empty");
+        mSize--;
+    }
+
+    /**
+     * Replaces the contents of this chain with a copy of other.
+     */
+    public void set(FilterChain other) {
+        if (other == this) return;
+        clear();
+        for (int i = 0; i < other.mSize; i++) {
+            add(other.mTypes[i], other.mValues[i]);
+        }
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of the type and value of every stage, in order.  Chains
+     * that differ only in stages {@link FilterChainOptimizer} would drop or merge get different
+     * fingerprints.
+     */
+    public long fingerprint() {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < mSize; i++) {
+            hash = (hash ^ mTypes[i]) * FNV_PRIME;
+            // adding 0.0 folds -0.0 into 0.0 so both hash the same
+            long bits = Double.doubleToLongBits(mValues[i] + 0.0);
+            for (int shift = 0; shift < 64; shift += 8) {
+                hash = (hash ^ ((bits >>> shift) & 0xff)) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Writes the 4x5 color matrix for the stage at index into out.
+     */
+    public void getStageMatrix(int index, float[] out) {
+        setStageMatrix(out, getType(index), getValue(index));
+    }
+
+    /**
+     * Concatenates every stage of this chain onto the given composer, in order.
+     */
+    public void compose(ColorMatrixComposer composer) {
+        for (int i = 0; i < mSize; i++) {
+            switch (mTypes[i]) {
+                case TYPE_HUE:
+                    composer.hue((float) mValues[i]);
+                    break;
+                case TYPE_SATURATION:
+                    composer.saturate((float) mValues[i]);
+                    break;
+                case TYPE_BRIGHTNESS:
+                    composer.brightness((float) mValues[i]);
+                    break;
+                case TYPE_CONTRAST:
+                    composer.contrast((float) mValues[i]);
+                    break;
+                case TYPE_ALPHA:
+                    composer.alpha((float) mValues[i]);
+                    break;
+                case TYPE_INVERT:
+                    if (mValues[i] != 0) composer.invertColors();
+                    break;
+                case TYPE_TINT:
+                    composer.tint((int) mValues[i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid filter type");
+            }
+        }
+    }
+
+    public static void setStageMatrix(float[] out, int type, double value) {
+        switch (type) {
+            case TYPE_HUE:
+                ColorMatrixComposer.setHue(out, (float) value);
+                break;
+            case TYPE_SATURATION:
+                ColorMatrixComposer.setSaturation(out, (float) value);
+                break;
+            case TYPE_BRIGHTNESS:
+                ColorMatrixComposer.setBrightness(out, (float) value);
+                break;
+            case TYPE_CONTRAST:
+                ColorMatrixComposer.setContrast(out, (float) value);
+                break;
+            case TYPE_ALPHA:
+                ColorMatrixComposer.setAlpha(out, (float) value);
+                break;
+            case TYPE_INVERT:
+                if (value != 0) {
+                    ColorMatrixComposer.setInvert(out);
+                } else {
+                    ColorMatrixComposer.setIdentity(out);
+                }
+                break;
+            case TYPE_TINT:
+                ColorMatrixComposer.setTint(out, (int) value);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid filter type");
+        }
+    }
+
+    /**
+     * @return the theme XML name for type
+     */
+    public static String getTypeName(int type) {
+        if (type < 0 || type >= TYPE_NAMES.length) {
+            throw new IllegalArgumentException("Invalid filter type");
+        }
+        return TYPE_NAMES[type];
+    }
+
+    /**
+     * @return the type whose theme XML name is name, or -1 if there is none
+     */
+    public static int getTypeForName(String name) {
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            if (TYPE_NAMES[type].equals(name)) return type;
+        }
+        return -1;
+    }
+
+    public static int getMinValue(int type) {
+        getTypeName(type);
+        return MIN_VALUES[type];
+    }
+
+    public static int getMaxValue(int type) {
+        getTypeName(type);
+        return MAX_VALUES[type];
+    }
+
+    public static int getDefaultValue(int type) {
+        getTypeName(type);
+        return DEFAULT_VALUES[type];
+    }
+
+    /**
+     * @return true if value is one the filter list can produce for type: within its range, and
+     * a whole number for invert and tint
+     */
+    public static boolean isValidValue(int type, double value) {
+        if (!(value >= getMinValue(type) && value <= MAX_VALUES[type])) return false;
+        return (type != TYPE_INVERT && type != TYPE_TINT) || value == (int) value;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + mSize);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+/**
+ * Compact binary encoding of a {@link FilterChain}, for saved instance state, preset files and
+ * passing chains between processes.
+ *
+ * The encoding is a version byte, the stage count as a varint, one entry per stage and a four
+ * byte FNV-1a checksum of everything before it.  A stage is its type byte followed by either
+ * the value as a zigzag varint, for whole numbers, or the eight bytes of the double when
+ * {@link #FLAG_DOUBLE} is set in the type byte, so merged fractional values survive exactly.
+ * A typical user built chain takes two or three bytes per stage.
+ *
+ * Nothing is allocated except by {@link #encode(FilterChain)}, which returns a new array.
+ */
+public final class FilterChainCodec {
+    public static final int VERSION = 1;
+
+    private static final int FLAG_DOUBLE = 0x80;
+    private static final int TYPE_MASK = 0x7f;
+    private static final int CHECKSUM_SIZE = 4;
+    private static final int MAX_VARINT_SIZE = 10;
+    private static final int FNV32_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV32_PRIME = 0x01000193;
+
+    private FilterChainCodec() {
+    }
+
+    /**
+     * @return the most bytes {@link #encode(FilterChain, byte[], int)} can write for a chain of
+     * stageCount stages
+     */
+    public static int getMaxEncodedSize(int stageCount) {
+        return 1 + MAX_VARINT_SIZE + stageCount * (1 + MAX_VARINT_SIZE) + CHECKSUM_SIZE;
+    }
+
+    public static byte[] encode(FilterChain chain) {
+        byte[] buffer = new byte[getMaxEncodedSize(chain.size())];
+        int length = encode(chain, buffer, 0);
+        byte[] out = new byte[length];
+        System.arraycopy(buffer, 0, out, 0, length);
+        return out;
+    }
+
+    /**
+     * Encodes chain into out starting at offset.
+     *
+     * @return number of bytes written
+     * @throws ArrayIndexOutOfBoundsException if out is too small, see
+     *                                        {@link #getMaxEncodedSize(int)}
+     */
+    public static int encode(FilterChain chain, byte[] out, int offset) {
+        int pos = offset;
+        out[pos++] = VERSION;
+        pos = writeVarint(chain.size(), out, pos);
+        for (int i = 0; i < chain.size(); i++) {
+            int type = chain.getType(i);
+            double value = chain.getValue(i);
+            long whole = (long) value;
+            if (whole == value && (whole != 0 || Double.doubleToRawLongBits(value) == 0)) {
+                out[pos++] = (byte) type;
+                pos = writeVarint((whole << 1) ^ (whole >> 63), out, pos);
+            } else {
+                out[pos++] = (byte) (type | FLAG_DOUBLE);
+                long bits = Double.doubleToLongBits(value);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out[pos++] = (byte) (bits >>> shift);
+                }
+            }
+        }
+        int checksum = checksum(out, offset, pos);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            out[pos++] = (byte) (checksum >>> shift);
+        }
+        return pos - offset;
+    }
+
+    public static FilterChain decode(byte[] in, FilterChain out) {
+        return decode(in, 0, in.length, out);
+    }
+
+    /**
+     * Replaces the contents of out with the chain encoded in length bytes of in starting at
+     * offset.  out is left empty if the data is rejected.
+     *
+     * @throws IllegalArgumentException if the data is truncated, corrupt, has trailing bytes
+     *                                  or was written by a newer version
+     */
+    public static FilterChain decode(byte[] in, int offset, int length, FilterChain out) {
+        out.clear();
+        final int end = offset + length;
+        if (length < 1 + 1 + CHECKSUM_SIZE || offset < 0 || end > in.length) {
+            throw new IllegalArgumentException("Encoded filter chain is truncated");
+        }
+        final int dataEnd = end - CHECKSUM_SIZE;
+        int stored = 0;
+        for (int i = dataEnd; i < end; i++) {
+            stored = (stored << 8) | (in[i] & 0xff);
+        }
+        if (stored != checksum(in, offset, dataEnd)) {
+            throw new IllegalArgumentException("Encoded filter chain checksum mismatch");
+        }
+        if (in[offset] != VERSION) {
+            throw new IllegalArgumentException("Unsupported filter chain version " + in[offset]);
+        }
+
+        int pos = offset + 1;
+        long count = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (pos == dataEnd || shift > 63) throw corrupt(out);
+            int b = in[pos++];
+            count |= (long) (b & 0x7f) << shift;
+            if (b >= 0) break;
+        }
+        for (long i = 0; i < count; i++) {
+            if (pos >= dataEnd) throw corrupt(out);
+            int typeByte = in[pos++] & 0xff;
+            int type = typeByte & TYPE_MASK;
+            double value;
+            if ((typeByte & FLAG_DOUBLE) != 0) {
+                if (dataEnd - pos < 8) throw corrupt(out);
+                long bits = 0;
+                for (int j = 0; j < 8; j++) {
+                    bits = (bits << 8) | (in[pos++] & 0xff);
+                }
+                value = Double.longBitsToDouble(bits);
+            } else {
+                long zigzag = 0;
+                for (int shift = 0; ; shift += 7) {
+                    if (pos == dataEnd || shift > 63) throw corrupt(out);
+                    int b = in[pos++];
+                    zigzag |= (long) (b & 0x7f) << shift;
+                    if (b >= 0) break;
+                }
+                value = (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+            if (type >= FilterChain.TYPE_NAMES.length) throw corrupt(out);
+            out.add(type, value);
+        }
+        if (pos != dataEnd) throw corrupt(out);
+        return out;
+    }
+
+    private static IllegalArgumentException corrupt(FilterChain out) {
+        out.clear();
+        return new IllegalArgumentException("Encoded filter chain is corrupt");
+    }
+
+    private static int writeVarint(long value, byte[] out, int pos) {
+        while ((value & ~0x7fL) != 0) {
+            out[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int checksum(byte[] data, int start, int end) {
+        int hash = FNV32_OFFSET_BASIS;
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ (data[i] & 0xff)) * FNV32_PRIME;
+        }
+        return hash;
+    }
+}
@@ -25,13 +25,14 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
-import android.graphics.ColorMatrix;
 import android.graphics.ColorMatrixColorFilter;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.view.PagerAdapter;
+import android.util.Log;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -49,17 +50,10 @@ import java.util.Collections;
 import java.util.List;
 
 public class FilterDesignerActivity extends Activity {
-    private static final String TAG_FILTER = "filter";
-    private static final String FILTER_HUE = "hue";
-    private static final String FILTER_SATURATION = "saturation";
-    private static final String FILTER_INVERT = "invert";
-    private static final String FILTER_BRIGHTNESS = "brightness";
-    private static final String FILTER_CONTRAST = "contrast";
-    private static final String FILTER_ALPHA = "alpha";
-    private static final String FILTER_TINT = "tint";
-
+    private static final String TAG = "FilterDesignerActivity";
     private static final long PULSE_ADD_BUTTON_INITIAL_DELAY = 3000;
     private static final long PULSE_ADD_BUTTON_DELAY = 5000;
+    private static final String STATE_FILTER_CHAIN = "filter_chain";
 
     private IconPagerAdapter mIconAdapter;
     private FilterListAdapter mFilterAdapter;
@@ -70,16 +64,25 @@ public class FilterDesignerActivity extends Activity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
 
-        VelocityViewPager pager = (VelocityViewPager) findViewById(R.id.icon_pager);
+        final VelocityViewPager pager = (VelocityViewPager) findViewById(R.id.icon_pager);
         mIconAdapter = new IconPagerAdapter(this);
         pager.setAdapter(mIconAdapter);
         mIconAdapter.notifyDataSetChanged();
+        pager.setOnFlingListener(new VelocityViewPager.OnFlingListener() {
+            @Override
+            public void onFling(int fromItem, int toItem) {
+                mIconAdapter.prefetch(pager.getCurrentItem(), fromItem, toItem);
+            }
+        });
 
         DynamicListView listView = (DynamicListView) findViewById(R.id.list_view);
         mFilterAdapter = new FilterListAdapter(this);
         listView.setAdapter(mFilterAdapter);
         listView.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
         listView.setFilterList(mFilterAdapter.getFilterList());
+        if (savedInstanceState != null) {
+            restoreFilterChain(savedInstanceState.getByteArray(STATE_FILTER_CHAIN));
+        }
 
         mAddFilterButton = (ImageButton) findViewById(R.id.add_filter);
         mAddFilterButton.setOnClickListener(new View.OnClickListener() {
@@ -109,6 +112,50 @@ public class FilterDesignerActivity extends Activity {
 
         CirclePageIndicator indicator = (CirclePageIndicator) findViewById(R.id.pager_indicator);
         indicator.setViewPager(pager);
+        indicator.setOnPageChangeListener(new VelocityViewPager.SimpleOnPageChangeListener() {
+            @Override
+            public void onPageSelected(int position) {
+                mIconAdapter.setLoadWindow(pager.getCurrentItem(), pager.getPredictedItem());
+            }
+
+            @Override
+            public void onPageScrollStateChanged(int state) {
+                if (state == VelocityViewPager.SCROLL_STATE_IDLE) {
+                    mIconAdapter.setLoadWindow(pager.getCurrentItem(), pager.getCurrentItem());
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mIconAdapter.shutdown();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        FilterChain chain = new FilterChain();
+        mFilterAdapter.buildFilterChain(chain);
+        outState.putByteArray(STATE_FILTER_CHAIN, FilterChainCodec.encode(chain));
+    }
+
+    private void restoreFilterChain(byte[] encoded) {
+        if (encoded == null) return;
+        try {
+            mFilterAdapter.setFilterChain(FilterChainCodec.decode(encoded, new FilterChain()));
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Unable to restore filters", e);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_MODERATE && mIconAdapter != null) {
+            mIconAdapter.trimMemory();
+        }
     }
 
     @Override
@@ -129,8 +176,8 @@ public class FilterDesignerActivity extends Activity {
         }
     }
 
-    public void updateColorFilter(ColorMatrix cm) {
-        if (mIconAdapter != null) mIconAdapter.setColorMatrix(cm);
+    public void updateColorFilter(CompiledFilter filter) {
+        if (mIconAdapter != null) mIconAdapter.setCompiledFilter(filter);
     }
 
     private Runnable mPulseAddButtonRunnable = new Runnable() {
@@ -148,42 +195,9 @@ public class FilterDesignerActivity extends Activity {
     private void showXml() {
         ArrayList<FilterListAdapter.FilterItem> filters = mFilterAdapter.getFilterList();
         StringBuilder sb = new StringBuilder();
-        String name = null;
-        String value = null;
-        for (FilterListAdapter.FilterItem item : filters) {
-            switch (item.filterType) {
-                case FilterListAdapter.FILTER_TYPE_HUE:
-                    name = FILTER_HUE;
-                    value = "" + ((FilterListAdapter.AdjustableFilter) item).current;
-                    break;
-                case FilterListAdapter.FILTER_TYPE_SATURATION:
-                    name = FILTER_SATURATION;
-                    value = "" + ((FilterListAdapter.AdjustableFilter) item).current;
-                    break;
-                case FilterListAdapter.FILTER_TYPE_BRIGHTNESS:
-                    name = FILTER_BRIGHTNESS;
-                    value = "" + ((FilterListAdapter.AdjustableFilter) item).current;
-                    break;
-                case FilterListAdapter.FILTER_TYPE_CONTRAST:
-                    name = FILTER_CONTRAST;
-                    value = "" + ((FilterListAdapter.AdjustableFilter) item).current;
-                    break;
-                case FilterListAdapter.FILTER_TYPE_ALPHA:
-                    name = FILTER_ALPHA;
-                    value = "" + ((FilterListAdapter.AdjustableFilter) item).current;
-                    break;
-                case FilterListAdapter.FILTER_TYPE_INVERT:
-                    name = FILTER_INVERT;
-                    value = ((FilterListAdapter.ToggleableFilter) item).enabled ? "true" : "false";
-                    break;
-                case FilterListAdapter.FILTER_TYPE_TINT:
-                    name = FILTER_TINT;
-                    value = String.format("#%08x", ((FilterListAdapter.ValueFilter) item).value);
-                    break;
-            }
-            sb.append(String.format("<%s name=\"%s\">%s</%s>\r\n",
-                    TAG_FILTER, name, value, TAG_FILTER));
-        }
+        FilterChain chain = new FilterChain();
+        mFilterAdapter.buildFilterChain(chain);
+        new FilterXmlSerializer().write(chain, sb);
         if (filters.size() == 0) {
             sb.append(getString(R.string.dialog_show_xml_empty));
         }
@@ -200,30 +214,105 @@ public class FilterDesignerActivity extends Activity {
         builder.create().show();
     }
 
-    private class IconPagerAdapter extends PagerAdapter {
+    private class IconPagerAdapter extends PagerAdapter implements IconLoadScheduler.Callback {
         private static final int ICONS_PER_PAGE = 5;
+        private static final int COLOR_FILTER_CACHE_SIZE = 32;
 
         List<ResolveInfo> mAppList;
         Context mContext;
-        PackageManager mPm;
         LayoutInflater mInflater;
+        private IconCache mIconCache;
+        private IconLoadScheduler mScheduler;
         private ColorMatrixColorFilter mColorFilter;
+        private FilterCache<ColorMatrixColorFilter> mColorFilterCache =
+                new FilterCache<ColorMatrixColorFilter>(COLOR_FILTER_CACHE_SIZE);
+        private float[] mMatrix = new float[ColorMatrixComposer.MATRIX_SIZE];
+        private SparseArray<ViewGroup> mLivePages = new SparseArray<ViewGroup>();
+        private boolean mAppListChanged;
 
         public IconPagerAdapter(Context context) {
             mContext = context;
             mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-            mPm = context.getPackageManager();
+            mIconCache = new IconCache(context);
+            mScheduler = new IconLoadScheduler(mIconCache, ICONS_PER_PAGE, this);
             new FetchResolveInfosTask(context, this).execute();
         }
 
         public void setAppList(List<ResolveInfo> list) {
             mAppList = list;
+            mScheduler.setAppList(list);
+            // only a new app list moves icons between pages, so only then rebuild them
+            mAppListChanged = true;
             notifyDataSetChanged();
+            mAppListChanged = false;
         }
 
-        public void setColorMatrix(ColorMatrix cm) {
-            mColorFilter = cm != null ? new ColorMatrixColorFilter(cm) : null;
-            notifyDataSetChanged();
+        public void setCompiledFilter(CompiledFilter filter) {
+            if (filter == null) {
+                mColorFilter = null;
+            } else {
+                mColorFilter = mColorFilterCache.get(filter.getFingerprint());
+                if (mColorFilter == null) {
+                    mColorFilter = new ColorMatrixColorFilter(filter.getMatrix(mMatrix));
+                    mColorFilterCache.put(filter.getFingerprint(), mColorFilter);
+                }
+            }
+            for (int i = 0; i < mLivePages.size(); i++) {
+                applyColorFilter(mLivePages.valueAt(i));
+            }
+        }
+
+        /**
+         * Sets the current color filter on the icons of a page.  Each icon drawable is a private
+         * copy, so this only invalidates the icon; nothing is inflated or laid out.
+         */
+        private void applyColorFilter(ViewGroup page) {
+            for (int i = 0; i < page.getChildCount(); i++) {
+                View child = page.getChildAt(i);
+                if (!(child instanceof ImageView)) continue;
+                Drawable d = ((ImageView) child).getDrawable();
+                if (d instanceof BitmapDrawable) {
+                    d.setColorFilter(mColorFilter);
+                }
+            }
+        }
+
+        /**
+         * Loads the icons for the pages a fling will pass and land on in the background.
+         */
+        public void prefetch(int currentPage, int fromPage, int toPage) {
+            mScheduler.setWindow(currentPage, toPage);
+            mScheduler.prefetchPages(fromPage, toPage);
+        }
+
+        /**
+         * Reorders pending icon loads around predictedPage, cancels pages outside the range
+         * from currentPage to predictedPage and queues again the live pages inside it.
+         */
+        public void setLoadWindow(int currentPage, int predictedPage) {
+            mScheduler.setWindow(currentPage, predictedPage);
+        }
+
+        public void shutdown() {
+            mScheduler.shutdown();
+        }
+
+        @Override
+        public void onPageLoaded(int position, Drawable[] icons) {
+            ViewGroup page = mLivePages.get(position);
+            if (page == null) return;
+            for (int i = 0; i < icons.length && i < page.getChildCount(); i++) {
+                ImageView icon = (ImageView) page.getChildAt(i);
+                if (icon.getDrawable() == null) icon.setImageDrawable(icons[i]);
+            }
+            applyColorFilter(page);
+        }
+
+        /**
+         * Drops cached icons; pages that are showing keep theirs.
+         */
+        public void trimMemory() {
+            mIconCache.evictAll();
         }
 
         @Override
@@ -241,34 +330,36 @@ public class FilterDesignerActivity extends Activity {
 
         @Override
         public int getItemPosition(Object object) {
-            return POSITION_NONE;
+            return mAppListChanged ? POSITION_NONE : POSITION_UNCHANGED;
         }
 
         @Override
         public Object instantiateItem(ViewGroup container, int position) {
-            View page = mInflater.inflate(R.layout.icon_page_item, container, false);
+            ViewGroup page = (ViewGroup) mInflater.inflate(R.layout.icon_page_item, container,
+                    false);
+            // icons already cached are shown right away; the rest load in the background
+            boolean complete = true;
             for (int i = 0; i < ICONS_PER_PAGE; i++) {
                 int index = position * ICONS_PER_PAGE + i;
                 if (mAppList.size() <= index) continue;
 
-                ImageView icon = (ImageView) ((ViewGroup) page).getChildAt(i);
+                ImageView icon = (ImageView) page.getChildAt(i);
                 if (icon != null) {
                     ResolveInfo info = mAppList.get(index);
-                    try {
-                        Drawable d = mPm.getActivityIcon(
-                                new ComponentName(info.activityInfo.packageName,
-                                info.activityInfo.name));
-                        if (d instanceof BitmapDrawable) {
-                            BitmapDrawable bd = (BitmapDrawable) d;
-                            bd.setColorFilter(mColorFilter);
-                        }
-                        icon.setImageDrawable(d);
-                    } catch (PackageManager.NameNotFoundException e) {
-                        e.printStackTrace();
-                    }
+                    Drawable d = mIconCache.getCachedIcon(new ComponentName(
+                            info.activityInfo.packageName, info.activityInfo.name));
+                    if (d == null) complete = false;
+                    icon.setImageDrawable(d);
                 }
             }
+            applyColorFilter(page);
             container.addView(page);
+            mLivePages.put(position, page);
+            if (!complete) {
+                VelocityViewPager pager = (VelocityViewPager) container;
+                mScheduler.setWindow(pager.getCurrentItem(), pager.getPredictedItem());
+                mScheduler.requestPage(position);
+            }
             return page;
         }
 
@@ -276,6 +367,8 @@ public class FilterDesignerActivity extends Activity {
         public void destroyItem(ViewGroup container, int position, Object object) {
             if (object instanceof View) {
                 container.removeView((View) object);
+                if (mLivePages.get(position) == object) mLivePages.remove(position);
+                mScheduler.cancelPage(position);
             }
         }
     }
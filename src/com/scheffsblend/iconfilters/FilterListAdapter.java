@@ -17,9 +17,12 @@ package com.scheffsblend.iconfilters;
 
 import android.content.Context;
 import android.content.DialogInterface;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.WindowManager;
 import android.widget.BaseAdapter;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
@@ -32,13 +35,17 @@ import java.util.ArrayList;
 import java.util.HashMap;
 
 class FilterListAdapter extends BaseAdapter {
-    public static final int FILTER_TYPE_HUE = 0;
-    public static final int FILTER_TYPE_SATURATION = 1;
-    public static final int FILTER_TYPE_BRIGHTNESS = 2;
-    public static final int FILTER_TYPE_CONTRAST = 3;
-    public static final int FILTER_TYPE_ALPHA = 4;
-    public static final int FILTER_TYPE_INVERT = 5;
-    public static final int FILTER_TYPE_TINT = 6;
+    public static final int FILTER_TYPE_HUE = FilterChain.TYPE_HUE;
+    public static final int FILTER_TYPE_SATURATION = FilterChain.TYPE_SATURATION;
+    public static final int FILTER_TYPE_BRIGHTNESS = FilterChain.TYPE_BRIGHTNESS;
+    public static final int FILTER_TYPE_CONTRAST = FilterChain.TYPE_CONTRAST;
+    public static final int FILTER_TYPE_ALPHA = FilterChain.TYPE_ALPHA;
+    public static final int FILTER_TYPE_INVERT = FilterChain.TYPE_INVERT;
+    public static final int FILTER_TYPE_TINT = FilterChain.TYPE_TINT;
+
+    private static final String TAG = "FilterListAdapter";
+    private static final boolean DEBUG = false;
+    private static final int FILTER_CACHE_SIZE = 32;
 
     final int INVALID_ID = -1;
 
@@ -46,6 +53,15 @@ class FilterListAdapter extends BaseAdapter {
     LayoutInflater mInflater;
     HashMap<FilterItem, Integer> mIdMap = new HashMap<FilterItem, Integer>();
     Context mContext;
+    FilterChain mFilterChain = new FilterChain();
+    FilterChain mOptimizedChain = new FilterChain();
+    ColorMatrixSegmentTree mMatrixTree = new ColorMatrixSegmentTree();
+    float[] mMatrix = new float[ColorMatrixComposer.MATRIX_SIZE];
+    FilterCache<CompiledFilter> mFilterCache = new FilterCache<CompiledFilter>(FILTER_CACHE_SIZE);
+    private FrameTimeCounter mPreviewFrameTimes;
+    private boolean mTrackingTouch;
+    private boolean mPreviewDirty;
+    private boolean mFrameCallbackPosted;
 
     class FilterItem {
         int filterType;
@@ -62,11 +78,11 @@ class FilterListAdapter extends BaseAdapter {
         int max = 100;
         int current = 0;
 
-        public AdjustableFilter(int type, int min, int max, int defValue, String label) {
+        public AdjustableFilter(int type, String label) {
             super(type, label);
-            this.min = min;
-            this.max = max;
-            this.current = defValue;
+            this.min = FilterChain.getMinValue(type);
+            this.max = FilterChain.getMaxValue(type);
+            this.current = FilterChain.getDefaultValue(type);
         }
     }
 
@@ -89,6 +105,8 @@ class FilterListAdapter extends BaseAdapter {
     public FilterListAdapter(Context context) {
         mContext = context;
         mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        mPreviewFrameTimes = new FrameTimeCounter(wm.getDefaultDisplay().getRefreshRate());
     }
 
     @Override
@@ -255,82 +273,165 @@ class FilterListAdapter extends BaseAdapter {
 
     @Override
     public void notifyDataSetChanged() {
+        recompose();
+        super.notifyDataSetChanged();
+    }
+
+    /**
+     * Rebuilds the filter from the current items and publishes it to the activity without
+     * rebinding any list rows.
+     */
+    private void recompose() {
         if (mContext instanceof FilterDesignerActivity) {
-            ColorFilterUtils.Builder b = new ColorFilterUtils.Builder();
-            for (FilterItem f : mFilterItems) {
-                switch (f.filterType) {
-                    case FILTER_TYPE_HUE:
-                        b.hue(((AdjustableFilter) f).current);
-                        break;
-                    case FILTER_TYPE_SATURATION:
-                        b.saturate(((AdjustableFilter) f).current);
-                        break;
-                    case FILTER_TYPE_BRIGHTNESS:
-                        b.brightness(((AdjustableFilter) f).current);
-                        break;
-                    case FILTER_TYPE_CONTRAST:
-                        b.contrast(((AdjustableFilter) f).current);
-                        break;
-                    case FILTER_TYPE_ALPHA:
-                        b.alpha(((AdjustableFilter) f).current);
-                        break;
-                    case FILTER_TYPE_INVERT:
-                        if (((ToggleableFilter) f).enabled) {
-                            b.invertColors();
-                        }
-                        break;
-                    case FILTER_TYPE_TINT:
-                        b.tint(((ValueFilter) f).value);
-                        break;
+            buildFilterChain(mFilterChain);
+            FilterChainOptimizer.optimize(mFilterChain, mOptimizedChain);
+            // the tree is fed the chain in list order so editing one item updates one leaf; the
+            // optimized chain would shift every leaf after a dropped stage
+            mMatrixTree.setChain(mFilterChain);
+            CompiledFilter filter = null;
+            if (mOptimizedChain.size() > 0) {
+                // keyed on the chain the matrix is composed from: merged hue rotations are not
+                // exact, so chains that optimize alike can still compose to different matrices
+                long fingerprint = mFilterChain.fingerprint();
+                filter = mFilterCache.get(fingerprint);
+                if (filter == null) {
+                    filter = new CompiledFilter(mMatrixTree.getMatrix(mMatrix), fingerprint,
+                            mFilterChain.size(), null);
+                    mFilterCache.put(fingerprint, filter);
                 }
             }
-            ((FilterDesignerActivity) mContext).updateColorFilter(b.build());
+            ((FilterDesignerActivity) mContext).updateColorFilter(filter);
+        }
+    }
+
+    /**
+     * Recomposes on the next frame.  Any number of changes before then cost one recomposition,
+     * which reads the items when it runs so the newest values always win.
+     */
+    private void schedulePreview() {
+        mPreviewDirty = true;
+        if (!mFrameCallbackPosted) {
+            mFrameCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(mPreviewFrameCallback);
+        }
+    }
+
+    /**
+     * Fills chain with the current filter items, in list order.  Disabled inverts are kept as
+     * a stage with a value of 0 so the chain mirrors the list exactly.
+     */
+    public void buildFilterChain(FilterChain chain) {
+        chain.clear();
+        for (FilterItem f : mFilterItems) {
+            switch (f.filterType) {
+                case FILTER_TYPE_HUE:
+                case FILTER_TYPE_SATURATION:
+                case FILTER_TYPE_BRIGHTNESS:
+                case FILTER_TYPE_CONTRAST:
+                case FILTER_TYPE_ALPHA:
+                    chain.add(f.filterType, ((AdjustableFilter) f).current);
+                    break;
+                case FILTER_TYPE_INVERT:
+                    chain.add(f.filterType, ((ToggleableFilter) f).enabled ? 1 : 0);
+                    break;
+                case FILTER_TYPE_TINT:
+                    chain.add(f.filterType, ((ValueFilter) f).value);
+                    break;
+            }
         }
-        super.notifyDataSetChanged();
     }
 
     public void addFilter(int type) {
+        FilterItem f = newFilterItem(type);
+        if (f != null) {
+            mIdMap.put(f, mFilterItems.size());
+            mFilterItems.add(f);
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Replaces the filter items with the stages of chain.  Adjustable values are rounded and
+     * clamped to the range the list allows.
+     */
+    public void setFilterChain(FilterChain chain) {
+        mFilterItems.clear();
+        mIdMap.clear();
+        for (int i = 0; i < chain.size(); i++) {
+            FilterItem f = newFilterItem(chain.getType(i));
+            if (f == null) continue;
+            double value = chain.getValue(i);
+            if (f instanceof AdjustableFilter) {
+                AdjustableFilter af = (AdjustableFilter) f;
+                af.current = Math.max(af.min, Math.min(af.max, (int) Math.round(value)));
+            } else if (f instanceof ToggleableFilter) {
+                ((ToggleableFilter) f).enabled = value != 0;
+            } else if (f instanceof ValueFilter) {
+                ((ValueFilter) f).value = (int) value;
+            }
+            mIdMap.put(f, mFilterItems.size());
+            mFilterItems.add(f);
+        }
+        notifyDataSetChanged();
+    }
+
+    private FilterItem newFilterItem(int type) {
         FilterItem f = null;
         switch (type) {
             case FILTER_TYPE_HUE:
-                f = new AdjustableFilter(type, -180, 180, 0,
-                        mContext.getString(R.string.filter_hue));
+                f = new AdjustableFilter(type, mContext.getString(R.string.filter_hue));
                 break;
             case FILTER_TYPE_SATURATION:
-                f = new AdjustableFilter(type, 0, 200, 100,
-                        mContext.getString(R.string.filter_saturation));
+                f = new AdjustableFilter(type, mContext.getString(R.string.filter_saturation));
                 break;
             case FILTER_TYPE_BRIGHTNESS:
-                f = new AdjustableFilter(type, 0, 200, 100,
-                        mContext.getString(R.string.filter_brightness));
+                f = new AdjustableFilter(type, mContext.getString(R.string.filter_brightness));
                 break;
             case FILTER_TYPE_CONTRAST:
-                f = new AdjustableFilter(type, -100, 100, 0,
-                        mContext.getString(R.string.filter_contrast));
+                f = new AdjustableFilter(type, mContext.getString(R.string.filter_contrast));
                 break;
             case FILTER_TYPE_ALPHA:
-                f = new AdjustableFilter(type, 0, 100, 100,
-                        mContext.getString(R.string.filter_alpha));
+                f = new AdjustableFilter(type, mContext.getString(R.string.filter_alpha));
                 break;
             case FILTER_TYPE_INVERT:
                 f = new ToggleableFilter(type, mContext.getString(R.string.filter_invert));
                 break;
             case FILTER_TYPE_TINT:
                 f = new ValueFilter(type, mContext.getString(R.string.filter_tint));
-                ((ValueFilter) f).value = 0xff000000;
+                ((ValueFilter) f).value = FilterChain.getDefaultValue(type);
                 break;
         }
-        if (f != null) {
-            mIdMap.put(f, mFilterItems.size());
-            mFilterItems.add(f);
-            notifyDataSetChanged();
-        }
+        return f;
     }
 
     public ArrayList<FilterItem> getFilterList() {
         return mFilterItems;
     }
 
+    /**
+     * Runs every frame while a slider is dragged, recomposing only if a value changed since
+     * the last frame, and records frame times for the drag.
+     */
+    private Choreographer.FrameCallback mPreviewFrameCallback =
+            new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameCallbackPosted = false;
+            long work = 0;
+            if (mPreviewDirty) {
+                mPreviewDirty = false;
+                long start = System.nanoTime();
+                recompose();
+                work = System.nanoTime() - start;
+            }
+            if (mTrackingTouch) {
+                if (DEBUG) mPreviewFrameTimes.onFrame(frameTimeNanos, work);
+                mFrameCallbackPosted = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    };
+
     private OnSeekBarChangeListener mSeekBarChangeListener = new OnSeekBarChangeListener() {
         @Override
         public void onProgressChanged(SeekBar seekBar, int i, boolean b) {
@@ -338,16 +439,31 @@ class FilterListAdapter extends BaseAdapter {
             AdjustableFilter f = (AdjustableFilter) tv.getTag();
             f.current = i + f.min;
             tv.setText("" + f.current);
+            if (b) schedulePreview();
         }
 
         @Override
         public void onStartTrackingTouch(SeekBar seekBar) {
-
+            mTrackingTouch = true;
+            mPreviewFrameTimes.reset();
+            if (!mFrameCallbackPosted) {
+                mFrameCallbackPosted = true;
+                Choreographer.getInstance().postFrameCallback(mPreviewFrameCallback);
+            }
         }
 
         @Override
         public void onStopTrackingTouch(SeekBar seekBar) {
-            notifyDataSetChanged();
+            mTrackingTouch = false;
+            Choreographer.getInstance().removeFrameCallback(mPreviewFrameCallback);
+            mFrameCallbackPosted = false;
+            mPreviewDirty = false;
+            recompose();
+            if (DEBUG) {
+                Log.d(TAG, "Live preview: " + mPreviewFrameTimes + ", filter cache "
+                        + mFilterCache.getHitCount() + " hits " + mFilterCache.getMissCount()
+                        + " misses");
+            }
         }
     };
 
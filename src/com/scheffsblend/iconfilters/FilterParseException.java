@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+/**
+ * Thrown when filter definitions cannot be read.  Carries the 1-based line number of the
+ * offending element when it is known.
+ */
+public class FilterParseException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int mLineNumber;
+    private final String mReason;
+
+    public FilterParseException(String message, int lineNumber) {
+        super(lineNumber > 0 ? "line " + lineNumber + ": " + message : message);
+        mLineNumber = lineNumber;
+        mReason = message;
+    }
+
+    /**
+     * @return the 1-based line number of the error, or 0 if unknown
+     */
+    public int getLineNumber() {
+        return mLineNumber;
+    }
+
+    /**
+     * @return the message without the line number, for callers that print the line themselves
+     */
+    public String getReason() {
+        return mReason;
+    }
+}
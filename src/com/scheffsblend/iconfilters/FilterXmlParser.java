@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streams theme filter definitions, <code>&lt;filter name="hue"&gt;30&lt;/filter&gt;</code>, out
+ * of XML.  Input can be the snippet shown by the designer or a whole appfilter.xml; every other
+ * element, comment, processing instruction and CDATA section is skipped.
+ *
+ * The parser reads through its own fixed buffer and reuses its scratch builders, so nothing is
+ * allocated per element and no document tree is built.  Values are checked for syntax only:
+ * numbers for the adjustable filters, true or false for invert and #AARRGGBB or #RRGGBB for
+ * tint.  Range checks are left to callers.
+ *
+ * A parser can be reused for any number of documents but must not be shared between threads.
+ */
+public class FilterXmlParser {
+    private static final int BUFFER_SIZE = 8192;
+    private static final String TAG_FILTER = "filter";
+    private static final String ATTR_NAME = "name";
+    private static final String CDATA_START = "CDATA[";
+
+    /**
+     * Receives filters and errors in document order.
+     */
+    public interface Handler {
+        void onFilter(int type, double value, int lineNumber) throws FilterParseException;
+
+        /**
+         * Called for an invalid filter element.  Throw to stop parsing or return to skip the
+         * element and continue.
+         */
+        void onError(String message, int lineNumber) throws FilterParseException;
+    }
+
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private final StringBuilder mToken = new StringBuilder();
+    private final StringBuilder mAttrValue = new StringBuilder();
+    private final StringBuilder mName = new StringBuilder();
+    private final StringBuilder mText = new StringBuilder();
+    private Reader mReader;
+    private int mPos;
+    private int mLimit;
+    private int mLine;
+    private boolean mSelfClosing;
+
+    /**
+     * Appends every filter in reader to chain.
+     *
+     * @throws FilterParseException on the first invalid filter element
+     */
+    public FilterChain parse(Reader reader, final FilterChain chain)
+            throws IOException, FilterParseException {
+        parse(reader, new Handler() {
+            @Override
+            public void onFilter(int type, double value, int lineNumber) {
+                chain.add(type, value);
+            }
+
+            @Override
+            public void onError(String message, int lineNumber) throws FilterParseException {
+                throw new FilterParseException(message, lineNumber);
+            }
+        });
+        return chain;
+    }
+
+    public void parse(Reader reader, Handler handler) throws IOException, FilterParseException {
+        mReader = reader;
+        mPos = 0;
+        mLimit = 0;
+        mLine = 1;
+        try {
+            int c;
+            while ((c = read()) != -1) {
+                if (c != '<') continue;
+
+                final int line = mLine;
+                c = read();
+                if (c == '!') {
+                    skipMarkupDeclaration();
+                } else if (c == '?') {
+                    skipPast("?>");
+                } else if (c == '/') {
+                    skipPast(">");
+                } else if (c != -1) {
+                    readName(c, mToken);
+                    if (TAG_FILTER.contentEquals(mToken)) {
+                        parseFilter(handler, line);
+                    } else {
+                        readAttributes(false, line);
+                    }
+                }
+            }
+        } finally {
+            mReader = null;
+        }
+    }
+
+    private void parseFilter(Handler handler, int line) throws IOException, FilterParseException {
+        mName.setLength(0);
+        boolean hasName = readAttributes(true, line);
+        if (mSelfClosing) {
+            handler.onError("filter element has no value", line);
+            return;
+        }
+
+        readFilterText(line);
+        readName(read(), mToken);
+        if (!TAG_FILTER.contentEquals(mToken)) {
+            throw new FilterParseException("filter element closed by </" + mToken + ">", mLine);
+        }
+        skipPast(">");
+
+        if (!hasName) {
+            handler.onError("filter element has no name attribute", line);
+            return;
+        }
+        int type = -1;
+        for (int t = 0; t < FilterChain.TYPE_NAMES.length; t++) {
+            if (FilterChain.TYPE_NAMES[t].contentEquals(mName)) {
+                type = t;
+                break;
+            }
+        }
+        if (type < 0) {
+            handler.onError("unknown filter \"" + mName + "\"", line);
+            return;
+        }
+
+        int start = 0;
+        int end = mText.length();
+        while (start < end && isWhitespace(mText.charAt(start))) start++;
+        while (end > start && isWhitespace(mText.charAt(end - 1))) end--;
+        double value = parseValue(type, mText, start, end);
+        if (Double.isNaN(value)) {
+            handler.onError("invalid value \"" + mText.substring(start, end) + "\" for "
+                    + FilterChain.TYPE_NAMES[type], line);
+            return;
+        }
+        handler.onFilter(type, value, line);
+    }
+
+    /**
+     * Reads the content of a filter element into mText, up to and including the "</" of its
+     * end tag.  Comments and processing instructions are skipped and CDATA sections are read as
+     * text.
+     */
+    private void readFilterText(int line) throws IOException, FilterParseException {
+        mText.setLength(0);
+        while (true) {
+            int c;
+            while ((c = read()) != -1 && c != '<') {
+                mText.append((char) c);
+            }
+            if (c == -1) {
+                throw new FilterParseException("unexpected end of document in filter element",
+                        line);
+            }
+            c = read();
+            if (c == '/') return;
+            if (c == '?') {
+                skipPast("?>");
+                continue;
+            }
+            if (c == '!') {
+                c = read();
+                if (c == '-' && read() == '-') {
+                    skipPast("-->");
+                    continue;
+                }
+                if (c == '[' && readCdataStart()) {
+                    readPast("]]>", mText);
+                    continue;
+                }
+            }
+            throw new FilterParseException("unexpected element inside filter element", mLine);
+        }
+    }
+
+    /**
+     * Reads the rest of a "&lt;![CDATA[" opener after its first bracket.
+     *
+     * @return true if it was a CDATA section
+     */
+    private boolean readCdataStart() throws IOException {
+        for (int i = 0; i < CDATA_START.length(); i++) {
+            if (read() != CDATA_START.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a filter value, returning NaN if it is malformed.
+     */
+    static double parseValue(int type, CharSequence s, int start, int end) {
+        switch (type) {
+            case FilterChain.TYPE_INVERT:
+                if (regionEqualsIgnoreCase(s, start, end, "true")) return 1;
+                if (regionEqualsIgnoreCase(s, start, end, "false")) return 0;
+                return Double.NaN;
+            case FilterChain.TYPE_TINT:
+                return parseColor(s, start, end);
+            default:
+                return parseNumber(s, start, end);
+        }
+    }
+
+    private static double parseNumber(CharSequence s, int start, int end) {
+        if (start == end) return Double.NaN;
+        boolean negative = false;
+        char first = s.charAt(start);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            start++;
+        }
+        double value = 0;
+        double scale = 0;
+        boolean hasDigits = false;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                hasDigits = true;
+                if (scale == 0) {
+                    value = value * 10 + (c - '0');
+                } else {
+                    value += (c - '0') / scale;
+                    scale *= 10;
+                }
+            } else if (c == '.' && scale == 0) {
+                scale = 10;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (!hasDigits) return Double.NaN;
+        return negative ? -value : value;
+    }
+
+    private static double parseColor(CharSequence s, int start, int end) {
+        int digits = end - start - 1;
+        if (digits != 6 && digits != 8 || s.charAt(start) != '#') return Double.NaN;
+        int color = 0;
+        for (int i = start + 1; i < end; i++) {
+            int d = Character.digit(s.charAt(i), 16);
+            if (d < 0) return Double.NaN;
+            color = (color << 4) | d;
+        }
+        if (digits == 6) color |= 0xff000000;
+        return color;
+    }
+
+    private static boolean regionEqualsIgnoreCase(CharSequence s, int start, int end,
+            String match) {
+        if (end - start != match.length()) return false;
+        for (int i = 0; i < match.length(); i++) {
+            if (Character.toLowerCase(s.charAt(start + i)) != match.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads attributes up to and including the end of a start tag.  When captureName is set the
+     * value of the name attribute is copied to mName.  Sets mSelfClosing if the tag ended
+     * with "/>".
+     *
+     * @return true if a name attribute was captured
+     */
+    private boolean readAttributes(boolean captureName, int line)
+            throws IOException, FilterParseException {
+        boolean hasName = false;
+        mSelfClosing = false;
+        while (true) {
+            int c = skipWhitespace();
+            if (c == '>') return hasName;
+            if (c == '/') {
+                if (read() != '>') throw new FilterParseException("malformed tag", mLine);
+                mSelfClosing = true;
+                return hasName;
+            }
+            if (c == -1) throw new FilterParseException("unexpected end of document", line);
+
+            readName(c, mToken);
+            if (skipWhitespace() != '=') {
+                throw new FilterParseException("attribute " + mToken + " has no value", mLine);
+            }
+            int quote = skipWhitespace();
+            if (quote != '"' && quote != '\'') {
+                throw new FilterParseException("attribute " + mToken + " is not quoted", mLine);
+            }
+            mAttrValue.setLength(0);
+            while ((c = read()) != quote) {
+                if (c == -1) throw new FilterParseException("unterminated attribute", line);
+                mAttrValue.append((char) c);
+            }
+            if (captureName && ATTR_NAME.contentEquals(mToken)) {
+                mName.setLength(0);
+                mName.append(mAttrValue);
+                hasName = true;
+            }
+        }
+    }
+
+    private void readName(int c, StringBuilder out) throws IOException {
+        out.setLength(0);
+        while (c != -1 && !isWhitespace(c) && c != '>' && c != '/' && c != '=') {
+            out.append((char) c);
+            c = read();
+        }
+        if (c != -1) unread();
+    }
+
+    private void skipMarkupDeclaration() throws IOException {
+        int c = read();
+        if (c == '-') {
+            read();
+            skipPast("-->");
+        } else if (c == '[') {
+            skipPast("]]>");
+        } else if (c != -1 && c != '>') {
+            skipDeclaration();
+        }
+    }
+
+    /**
+     * Skips past the end of a declaration such as a DOCTYPE, including any internal subset in
+     * brackets.  Quoted literals and comments inside the subset may contain '>' and brackets.
+     */
+    private void skipDeclaration() throws IOException {
+        int depth = 0;
+        int quote = -1;
+        int c;
+        while ((c = read()) != -1) {
+            if (quote != -1) {
+                if (c == quote) quote = -1;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            } else if (c == '>' && depth <= 0) {
+                return;
+            } else if (c == '<' && depth > 0) {
+                c = read();
+                if (c == '!') {
+                    c = read();
+                    if (c == '-') {
+                        read();
+                        skipPast("-->");
+                        continue;
+                    }
+                }
+                if (c != -1) unread();
+            }
+        }
+    }
+
+    /**
+     * Skips past the next occurrence of terminator, which is at most three characters long.
+     */
+    private void skipPast(String terminator) throws IOException {
+        readPast(terminator, null);
+    }
+
+    /**
+     * Reads past the next occurrence of terminator, which is at most three characters long,
+     * appending the characters before it to out if out is not null.
+     */
+    private void readPast(String terminator, StringBuilder out) throws IOException {
+        final int length = terminator.length();
+        int beforeLast = -1;
+        int last = -1;
+        int c;
+        while ((c = read()) != -1) {
+            if (c == terminator.charAt(length - 1)
+                    && (length < 2 || last == terminator.charAt(length - 2))
+                    && (length < 3 || beforeLast == terminator.charAt(0))) {
+                if (out != null) out.setLength(out.length() - (length - 1));
+                return;
+            }
+            if (out != null) out.append((char) c);
+            beforeLast = last;
+            last = c;
+        }
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && isWhitespace(c));
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private int read() throws IOException {
+        if (mPos == mLimit) {
+            int count = mReader.read(mBuffer, 0, BUFFER_SIZE);
+            if (count <= 0) return -1;
+            mPos = 0;
+            mLimit = count;
+        }
+        char c = mBuffer[mPos++];
+        if (c == '\n') mLine++;
+        return c;
+    }
+
+    /**
+     * Steps back over the last character read.  Always possible because a refill only happens
+     * when the previous character was the last in the buffer.
+     */
+    private void unread() {
+        mPos--;
+        if (mBuffer[mPos] == '\n') mLine--;
+    }
+}
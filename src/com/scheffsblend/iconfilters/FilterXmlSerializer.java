@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes filter chains as theme filter elements, one
+ * <code>&lt;filter name="hue"&gt;30&lt;/filter&gt;</code> line per stage, the format read by
+ * {@link FilterXmlParser}.
+ *
+ * Each element is formatted into a reusable char buffer without format strings or temporary
+ * strings and then copied to the destination, so writing any number of chains produces no
+ * garbage.  Integral values are written as integers and fractional values, which only come
+ * from optimized chains, with up to four decimals.
+ *
+ * A serializer can be reused but must not be shared between threads.
+ */
+public class FilterXmlSerializer {
+    private static final String ELEMENT_START = "<filter name=\"";
+    private static final String ELEMENT_MIDDLE = "\">";
+    private static final String ELEMENT_END = "</filter>\r\n";
+    private static final String TRUE = "true";
+    private static final String FALSE = "false";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int FRACTION_DIGITS = 4;
+    private static final int FRACTION_SCALE = 10000;
+
+    private final char[] mElement = new char[128];
+    private final char[] mDigits = new char[20];
+    private int mLength;
+
+    public void write(FilterChain chain, Appendable out) throws IOException {
+        for (int i = 0; i < chain.size(); i++) {
+            formatElement(chain.getType(i), chain.getValue(i));
+            for (int j = 0; j < mLength; j++) {
+                out.append(mElement[j]);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #write(FilterChain, Appendable)} for a StringBuilder, which cannot throw.
+     */
+    public void write(FilterChain chain, StringBuilder out) {
+        for (int i = 0; i < chain.size(); i++) {
+            formatElement(chain.getType(i), chain.getValue(i));
+            out.append(mElement, 0, mLength);
+        }
+    }
+
+    /**
+     * Writes chain to out as ASCII bytes starting at its position.
+     *
+     * @throws BufferOverflowException if out does not have room for the whole chain; out may
+     *                                 then hold part of the chain
+     */
+    public void write(FilterChain chain, ByteBuffer out) {
+        for (int i = 0; i < chain.size(); i++) {
+            formatElement(chain.getType(i), chain.getValue(i));
+            if (out.remaining() < mLength) throw new BufferOverflowException();
+            for (int j = 0; j < mLength; j++) {
+                out.put((byte) mElement[j]);
+            }
+        }
+    }
+
+    private void formatElement(int type, double value) {
+        mLength = 0;
+        appendString(ELEMENT_START);
+        appendString(FilterChain.getTypeName(type));
+        appendString(ELEMENT_MIDDLE);
+        switch (type) {
+            case FilterChain.TYPE_INVERT:
+                appendString(value != 0 ? TRUE : FALSE);
+                break;
+            case FilterChain.TYPE_TINT:
+                appendColor((int) value);
+                break;
+            default:
+                appendNumber(value);
+                break;
+        }
+        appendString(ELEMENT_END);
+    }
+
+    private void appendString(String s) {
+        final int length = s.length();
+        s.getChars(0, length, mElement, mLength);
+        mLength += length;
+    }
+
+    private void appendColor(int color) {
+        mElement[mLength++] = '#';
+        for (int shift = 28; shift >= 0; shift -= 4) {
+            mElement[mLength++] = HEX_DIGITS[(color >>> shift) & 0xf];
+        }
+    }
+
+    private void appendNumber(double value) {
+        long scaled = Math.round(Math.abs(value) * FRACTION_SCALE);
+        if (value < 0 && scaled != 0) mElement[mLength++] = '-';
+        appendLong(scaled / FRACTION_SCALE);
+        int fraction = (int) (scaled % FRACTION_SCALE);
+        if (fraction != 0) {
+            int digits = FRACTION_DIGITS;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            mElement[mLength++] = '.';
+            for (int i = digits - 1; i >= 0; i--) {
+                mElement[mLength + i] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            mLength += digits;
+        }
+    }
+
+    private void appendLong(long value) {
+        int count = 0;
+        do {
+            mDigits[count++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (count > 0) {
+            mElement[mLength++] = mDigits[--count];
+        }
+    }
+}
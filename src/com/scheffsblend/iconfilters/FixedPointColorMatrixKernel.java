@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+/**
+ * A {@link ColorMatrixKernel} that runs on integer math only.  The matrix is converted to fixed
+ * point once, with 16 fractional bits when the coefficients allow it and fewer when a row could
+ * otherwise overflow a 32-bit accumulator, the same trade-off Skia's fixed point color matrix
+ * filter makes.
+ *
+ * Quantizing the coefficients introduces a small error; {@link #getMaxError()} gives a bound on
+ * it in channel units and {@link #measureMaxDeviation} compares against the float kernel on
+ * real pixels.  With 16 fractional bits the bound is well under one level, so results differ
+ * from the float path by at most 1 and only where the float result sits on a rounding edge.
+ */
+public class FixedPointColorMatrixKernel extends ColorMatrixKernel {
+    private static final int MAX_SHIFT = 16;
+    private static final int MIN_SHIFT = 8;
+
+    private final int[] mFixed = new int[ColorMatrixComposer.MATRIX_SIZE];
+    private final int mShift;
+    private final float mMaxError;
+
+    /**
+     * @throws IllegalArgumentException if the matrix is not finite or is too large to fit a
+     *                                  32-bit accumulator with at least 8 fractional bits
+     */
+    public FixedPointColorMatrixKernel(float[] matrix) {
+        super(matrix);
+        double maxRow = 0;
+        for (int row = 0; row < ColorMatrixComposer.MATRIX_SIZE; row += 5) {
+            double sum = Math.abs((double) mMatrix[row + 4]);
+            for (int i = 0; i < 4; i++) {
+                sum += Math.abs((double) mMatrix[row + i]) * 255;
+            }
+            if (Double.isNaN(sum) || Double.isInfinite(sum)) {
+                throw new IllegalArgumentException("Color matrix must be finite");
+            }
+            maxRow = Math.max(maxRow, sum);
+        }
+
+        // leave room for the rounding bias and the quantization error of each term
+        int shift = MAX_SHIFT;
+        while (shift >= MIN_SHIFT && (maxRow + 8) * (1 << shift) > Integer.MAX_VALUE) {
+            shift--;
+        }
+        if (shift < MIN_SHIFT) {
+            throw new IllegalArgumentException("Color matrix is too large for fixed point");
+        }
+        mShift = shift;
+
+        final double one = 1 << shift;
+        float maxError = 0;
+        for (int row = 0; row < ColorMatrixComposer.MATRIX_SIZE; row += 5) {
+            double error = 0;
+            for (int i = 0; i < 5; i++) {
+                double value = mMatrix[row + i];
+                int fixed = (int) Math.round(value * one);
+                mFixed[row + i] = fixed;
+                error += Math.abs(value - fixed / one) * (i < 4 ? 255 : 1);
+            }
+            maxError = Math.max(maxError, (float) error);
+            // fold round-to-nearest into the translation term
+            mFixed[row + 4] += 1 << (shift - 1);
+        }
+        mMaxError = maxError;
+    }
+
+    /**
+     * @return the number of fractional bits used by the fixed point coefficients
+     */
+    public int getFractionBits() {
+        return mShift;
+    }
+
+    /**
+     * @return an upper bound, in channel levels, on how far any channel can be from the exact
+     * float result before rounding
+     */
+    public float getMaxError() {
+        return mMaxError;
+    }
+
+    @Override
+    public int filter(int color) {
+        final int[] m = mFixed;
+        final int r = (color >> 16) & 0xff;
+        final int g = (color >> 8) & 0xff;
+        final int b = color & 0xff;
+        final int a = color >>> 24;
+        return (clampFixed(m[15] * r + m[16] * g + m[17] * b + m[18] * a + m[19]) << 24)
+                | (clampFixed(m[0] * r + m[1] * g + m[2] * b + m[3] * a + m[4]) << 16)
+                | (clampFixed(m[5] * r + m[6] * g + m[7] * b + m[8] * a + m[9]) << 8)
+                | clampFixed(m[10] * r + m[11] * g + m[12] * b + m[13] * a + m[14]);
+    }
+
+    @Override
+    public void filter(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dst.length, dstOffset, count);
+
+        final int[] m = mFixed;
+        final int shift = mShift;
+        final int m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3], m4 = m[4];
+        final int m5 = m[5], m6 = m[6], m7 = m[7], m8 = m[8], m9 = m[9];
+        final int m10 = m[10], m11 = m[11], m12 = m[12], m13 = m[13], m14 = m[14];
+        final int m15 = m[15], m16 = m[16], m17 = m[17], m18 = m[18], m19 = m[19];
+        for (int i = 0; i < count; i++) {
+            final int color = src[srcOffset + i];
+            final int r = (color >> 16) & 0xff;
+            final int g = (color >> 8) & 0xff;
+            final int b = color & 0xff;
+            final int a = color >>> 24;
+            int ca = (m15 * r + m16 * g + m17 * b + m18 * a + m19) >> shift;
+            int cr = (m0 * r + m1 * g + m2 * b + m3 * a + m4) >> shift;
+            int cg = (m5 * r + m6 * g + m7 * b + m8 * a + m9) >> shift;
+            int cb = (m10 * r + m11 * g + m12 * b + m13 * a + m14) >> shift;
+            ca = ca < 0 ? 0 : (ca > 255 ? 255 : ca);
+            cr = cr < 0 ? 0 : (cr > 255 ? 255 : cr);
+            cg = cg < 0 ? 0 : (cg > 255 ? 255 : cg);
+            cb = cb < 0 ? 0 : (cb > 255 ? 255 : cb);
+            dst[dstOffset + i] = (ca << 24) | (cr << 16) | (cg << 8) | cb;
+        }
+    }
+
+    /**
+     * Filters the given pixels with both this kernel and the float {@link ColorMatrixKernel}
+     * and returns the largest per channel difference found.
+     */
+    public int measureMaxDeviation(int[] pixels, int offset, int count) {
+        checkRange(pixels.length, offset, count);
+        ColorMatrixKernel reference = new ColorMatrixKernel(mMatrix);
+        int maxDeviation = 0;
+        for (int i = 0; i < count; i++) {
+            int expected = reference.filter(pixels[offset + i]);
+            int actual = filter(pixels[offset + i]);
+            for (int shift = 0; shift < 32; shift += 8) {
+                int diff = Math.abs(((expected >>> shift) & 0xff) - ((actual >>> shift) & 0xff));
+                if (diff > maxDeviation) maxDeviation = diff;
+            }
+        }
+        return maxDeviation;
+    }
+
+    private int clampFixed(int value) {
+        value >>= mShift;
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import java.util.Locale;
+
+/**
+ * Counts frames and the time between them, plus the time spent on work inside each frame.  Fed
+ * from a frame callback with the vsync timestamps, it shows whether an interaction held the
+ * display rate: a frame is counted as missed when its interval exceeds one and a half frame
+ * budgets, which means at least one vsync was skipped.
+ */
+public class FrameTimeCounter {
+    /**
+     * Refresh rate assumed when the display does not report a usable one.
+     */
+    public static final float DEFAULT_REFRESH_RATE = 60;
+
+    private final long mFrameBudgetNanos;
+    private long mLastFrameNanos;
+    private int mFrameCount;
+    private int mMissedFrameCount;
+    private long mTotalIntervalNanos;
+    private long mMaxIntervalNanos;
+    private int mWorkCount;
+    private long mTotalWorkNanos;
+    private long mMaxWorkNanos;
+
+    public FrameTimeCounter() {
+        this(DEFAULT_REFRESH_RATE);
+    }
+
+    /**
+     * @param refreshRate frames per second of the display being measured, such as
+     *                    Display.getRefreshRate(); {@link #DEFAULT_REFRESH_RATE} is used if it is
+     *                    not positive
+     */
+    public FrameTimeCounter(float refreshRate) {
+        if (!(refreshRate > 0) || Float.isInfinite(refreshRate)) refreshRate = DEFAULT_REFRESH_RATE;
+        mFrameBudgetNanos = Math.round(1e9 / refreshRate);
+    }
+
+    /**
+     * @return the duration of one frame at the refresh rate given to the constructor
+     */
+    public long getFrameBudgetNanos() {
+        return mFrameBudgetNanos;
+    }
+
+    public void reset() {
+        mLastFrameNanos = 0;
+        mFrameCount = 0;
+        mMissedFrameCount = 0;
+        mTotalIntervalNanos = 0;
+        mMaxIntervalNanos = 0;
+        mWorkCount = 0;
+        mTotalWorkNanos = 0;
+        mMaxWorkNanos = 0;
+    }
+
+    /**
+     * Records a frame.
+     *
+     * @param frameTimeNanos vsync time of the frame, as passed to a frame callback
+     * @param workNanos      time spent on the measured work during the frame
+     */
+    public void onFrame(long frameTimeNanos, long workNanos) {
+        if (mLastFrameNanos != 0) {
+            long interval = frameTimeNanos - mLastFrameNanos;
+            mFrameCount++;
+            mTotalIntervalNanos += interval;
+            if (interval > mMaxIntervalNanos) mMaxIntervalNanos = interval;
+            if (interval > mFrameBudgetNanos * 3 / 2) mMissedFrameCount++;
+        }
+        mLastFrameNanos = frameTimeNanos;
+        mWorkCount++;
+        mTotalWorkNanos += workNanos;
+        if (workNanos > mMaxWorkNanos) mMaxWorkNanos = workNanos;
+    }
+
+    /**
+     * @return number of frame intervals recorded, one less than the frames seen
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getMissedFrameCount() {
+        return mMissedFrameCount;
+    }
+
+    public double getAverageFps() {
+        return mTotalIntervalNanos == 0 ? 0 : mFrameCount * 1e9 / mTotalIntervalNanos;
+    }
+
+    public double getMaxIntervalMillis() {
+        return mMaxIntervalNanos / 1e6;
+    }
+
+    public double getMaxWorkMillis() {
+        return mMaxWorkNanos / 1e6;
+    }
+
+    public double getAverageWorkMillis() {
+        return mWorkCount == 0 ? 0 : mTotalWorkNanos / 1e6 / mWorkCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d frames, %.1f fps, %d missed, "
+                + "max interval %.1f ms, work avg %.2f ms max %.2f ms", mFrameCount,
+                getAverageFps(), mMissedFrameCount, getMaxIntervalMillis(),
+                getAverageWorkMillis(), getMaxWorkMillis());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+/**
+ * Precomputed cosine and sine of every integer degree in [-180, 180], the range produced by the
+ * hue slider.  A hue matrix is affine in the two, so {@link ColorMatrixComposer#setHue} builds
+ * the exact matrix from a table entry without calling {@link Math#cos} or {@link Math#sin}.
+ * The table is built the first time it is used and never modified afterwards.
+ */
+class HueRotationTable {
+    static final int MIN_DEGREES = -180;
+    static final int MAX_DEGREES = 180;
+
+    private HueRotationTable() {
+    }
+
+    static boolean contains(int degrees) {
+        return degrees >= MIN_DEGREES && degrees <= MAX_DEGREES;
+    }
+
+    /**
+     * @return the cosine of degrees, identical to computing it from the angle in radians as a
+     * float; degrees must be {@link #contains contained} in the table
+     */
+    static float cos(int degrees) {
+        return Holder.TABLE[(degrees - MIN_DEGREES) * 2];
+    }
+
+    /**
+     * @return the sine of degrees, identical to computing it from the angle in radians as a
+     * float; degrees must be {@link #contains contained} in the table
+     */
+    static float sin(int degrees) {
+        return Holder.TABLE[(degrees - MIN_DEGREES) * 2 + 1];
+    }
+
+    /**
+     * Lazy holder so the table is only built, safely and exactly once, on first use.
+     */
+    private static class Holder {
+        static final float[] TABLE = build();
+
+        private static float[] build() {
+            float[] table = new float[(MAX_DEGREES - MIN_DEGREES + 1) * 2];
+            int offset = 0;
+            for (int degrees = MIN_DEGREES; degrees <= MAX_DEGREES; degrees++) {
+                // the same float expression setHue uses, so entries match direct computation
+                float radians = (float) degrees / 180 * (float) Math.PI;
+                table[offset++] = (float) Math.cos(radians);
+                table[offset++] = (float) Math.sin(radians);
+            }
+            return table;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Memory bounded cache of activity icons keyed by component, so rebuilding icon pages never
+ * asks the package manager for the same icon twice.
+ *
+ * Entries are weighed by the bytes of their bitmaps and the cache is given an eighth of the
+ * app's memory class.  Callers get a new mutated drawable from the cached one's constant
+ * state, so setting a color filter on it never affects the cached icon or other pages.
+ * Safe to use from any thread.
+ */
+class IconCache {
+    private static final String TAG = "IconCache";
+    private static final int MEMORY_FRACTION = 8;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final PackageManager mPm;
+    private final LruCache<ComponentName, Drawable> mCache;
+
+    public IconCache(Context context) {
+        mPm = context.getPackageManager();
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = am.getMemoryClass() * 1024 * 1024 / MEMORY_FRACTION;
+        mCache = new LruCache<ComponentName, Drawable>(maxBytes) {
+            @Override
+            protected int sizeOf(ComponentName key, Drawable value) {
+                return byteCountOf(value);
+            }
+        };
+    }
+
+    /**
+     * Returns a private copy of the icon for component, loading it from the package manager if
+     * it is not cached.
+     *
+     * @return the icon, or null if component does not exist
+     */
+    public Drawable getIcon(ComponentName component) {
+        Drawable icon = mCache.get(component);
+        if (icon == null) {
+            try {
+                icon = mPm.getActivityIcon(component);
+            } catch (PackageManager.NameNotFoundException e) {
+                Log.w(TAG, "No icon for " + component, e);
+                return null;
+            }
+            mCache.put(component, icon);
+        }
+        return copyOf(icon);
+    }
+
+    /**
+     * Returns a private copy of the icon for component if it is cached, without loading it.
+     * Cheap enough for the UI thread: the copy shares the cached bitmap.
+     */
+    public Drawable getCachedIcon(ComponentName component) {
+        Drawable icon = mCache.get(component);
+        return icon != null ? copyOf(icon) : null;
+    }
+
+    /**
+     * Loads the icon for component into the cache if it is not there yet.  Meant for
+     * background threads so a later {@link #getIcon} is a cache hit.
+     */
+    public void preload(ComponentName component) {
+        if (mCache.get(component) != null) return;
+        try {
+            mCache.put(component, mPm.getActivityIcon(component));
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "No icon for " + component, e);
+        }
+    }
+
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    public int getSize() {
+        return mCache.size();
+    }
+
+    public int getMaxSize() {
+        return mCache.maxSize();
+    }
+
+    private static Drawable copyOf(Drawable icon) {
+        Drawable.ConstantState state = icon.getConstantState();
+        if (state == null) return icon;
+        // no Resources argument, so the copy keeps the density of the package it came from
+        return state.newDrawable().mutate();
+    }
+
+    private static int byteCountOf(Drawable icon) {
+        if (icon instanceof BitmapDrawable) {
+            Bitmap bitmap = ((BitmapDrawable) icon).getBitmap();
+            if (bitmap != null) return bitmap.getAllocationByteCount();
+        }
+        return Math.max(1, icon.getIntrinsicWidth() * icon.getIntrinsicHeight() * BYTES_PER_PIXEL);
+    }
+}
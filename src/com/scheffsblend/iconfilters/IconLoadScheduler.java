@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import android.content.ComponentName;
+import android.content.pm.ResolveInfo;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Loads the icons of pager pages on a small pool of background threads, nearest page first.
+ *
+ * Pending pages are ordered by their distance from the page a fling will land on, which is the
+ * current page when the pager is at rest, when a worker picks its next task; the landing page
+ * loads first and the order follows the pager as it moves.  Pages outside the window between
+ * the current page and the landing page, plus one page either side, are cancelled: pending
+ * ones are dropped and a page being loaded stops at its next icon.  A requested page that is
+ * dropped this way is queued again once the window covers it, until it is cancelled.
+ *
+ * Pages requested for display are handed to the {@link Callback} on the UI thread; results
+ * that finish close together are delivered by a single message.  Prefetched pages only fill
+ * the {@link IconCache}.
+ *
+ * Every package manager call and bitmap decode happens on the worker threads.
+ */
+class IconLoadScheduler {
+    private static final int WORKER_COUNT = 2;
+    private static final int MAX_PENDING_PAGES = 64;
+    private static final int WINDOW_MARGIN = 1;
+
+    /**
+     * Receives the icons of a requested page on the UI thread.
+     */
+    public interface Callback {
+        /**
+         * @param icons one private icon per app on the page, null where an app has no icon
+         */
+        void onPageLoaded(int page, Drawable[] icons);
+    }
+
+    private static class Task {
+        final int page;
+        boolean deliver;
+
+        Task(int page, boolean deliver) {
+            this.page = page;
+            this.deliver = deliver;
+        }
+    }
+
+    private static class Result {
+        final List<ResolveInfo> appList;
+        final int page;
+        final Drawable[] icons;
+
+        Result(List<ResolveInfo> appList, int page, Drawable[] icons) {
+            this.appList = appList;
+            this.page = page;
+            this.icons = icons;
+        }
+    }
+
+    private final IconCache mIconCache;
+    private final int mIconsPerPage;
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Thread[] mWorkers = new Thread[WORKER_COUNT];
+
+    // guarded by mPending
+    private final ArrayList<Task> mPending = new ArrayList<Task>();
+    // requested pages dropped before they were delivered
+    private final BitSet mDeferredPages = new BitSet();
+    private List<ResolveInfo> mAppList;
+    private int mCurrentPage;
+    private int mPredictedPage;
+    private boolean mShutdown;
+
+    // guarded by mResults
+    private final ArrayList<Result> mResults = new ArrayList<Result>();
+    private boolean mDeliveryPosted;
+
+    public IconLoadScheduler(IconCache iconCache, int iconsPerPage, Callback callback) {
+        mIconCache = iconCache;
+        mIconsPerPage = iconsPerPage;
+        mCallback = callback;
+        for (int i = 0; i < WORKER_COUNT; i++) {
+            mWorkers[i] = new Thread(mWorker, "IconLoader-" + i);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Sets the apps shown by the pager and drops every pending page.  The list must not be
+     * modified afterwards.
+     */
+    public void setAppList(List<ResolveInfo> appList) {
+        synchronized (mPending) {
+            mAppList = appList;
+            mPending.clear();
+            mDeferredPages.clear();
+        }
+    }
+
+    /**
+     * Queues page for loading and delivery to the callback.
+     */
+    public void requestPage(int page) {
+        enqueue(page, true);
+    }
+
+    /**
+     * Queues every page from fromPage to toPage for loading into the cache only.
+     */
+    public void prefetchPages(int fromPage, int toPage) {
+        final int step = toPage >= fromPage ? 1 : -1;
+        for (int page = fromPage; page != toPage + step; page += step) {
+            enqueue(page, false);
+        }
+        enqueue(toPage + 1, false);
+        enqueue(toPage - 1, false);
+    }
+
+    /**
+     * Moves the load window and queues again the requested pages it now covers.  Call on page
+     * changes and when a fling starts or ends.
+     *
+     * @param currentPage   the pager's current item
+     * @param predictedPage the page a fling in progress will land on, which pending pages are
+     *                      ordered around, or currentPage
+     */
+    public void setWindow(int currentPage, int predictedPage) {
+        synchronized (mPending) {
+            mCurrentPage = currentPage;
+            mPredictedPage = predictedPage;
+            for (int i = mPending.size() - 1; i >= 0; i--) {
+                Task t = mPending.get(i);
+                if (!isInWindow(t.page)) {
+                    if (t.deliver) mDeferredPages.set(t.page);
+                    mPending.remove(i);
+                }
+            }
+            int first = Math.max(0, Math.min(currentPage, predictedPage) - WINDOW_MARGIN);
+            int last = Math.max(currentPage, predictedPage) + WINDOW_MARGIN;
+            for (int page = mDeferredPages.nextSetBit(first); page >= 0 && page <= last;
+                    page = mDeferredPages.nextSetBit(page + 1)) {
+                mDeferredPages.clear(page);
+                enqueue(page, true);
+            }
+        }
+    }
+
+    /**
+     * Drops page if it is still pending, for example because its view was destroyed.
+     */
+    public void cancelPage(int page) {
+        synchronized (mPending) {
+            if (page >= 0) mDeferredPages.clear(page);
+            for (int i = 0; i < mPending.size(); i++) {
+                if (mPending.get(i).page == page) {
+                    mPending.remove(i);
+                    return;
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        synchronized (mPending) {
+            mShutdown = true;
+            mPending.clear();
+            mPending.notifyAll();
+        }
+        mHandler.removeCallbacks(mDeliverResults);
+    }
+
+    private void enqueue(int page, boolean deliver) {
+        synchronized (mPending) {
+            if (mShutdown || mAppList == null || page < 0
+                    || page * mIconsPerPage >= mAppList.size()) {
+                return;
+            }
+            if (!isInWindow(page)) {
+                if (deliver) mDeferredPages.set(page);
+                return;
+            }
+            for (Task t : mPending) {
+                if (t.page == page) {
+                    t.deliver |= deliver;
+                    return;
+                }
+            }
+            if (mPending.size() == MAX_PENDING_PAGES) {
+                Task evicted = mPending.remove(farthestPendingIndex());
+                if (evicted.deliver) mDeferredPages.set(evicted.page);
+            }
+            mPending.add(new Task(page, deliver));
+            mPending.notify();
+        }
+    }
+
+    // must hold mPending
+    private boolean isInWindow(int page) {
+        return page >= Math.min(mCurrentPage, mPredictedPage) - WINDOW_MARGIN
+                && page <= Math.max(mCurrentPage, mPredictedPage) + WINDOW_MARGIN;
+    }
+
+    // must hold mPending
+    private int distance(int page) {
+        return Math.abs(page - mPredictedPage);
+    }
+
+    // must hold mPending
+    private int farthestPendingIndex() {
+        int farthest = 0;
+        for (int i = 1; i < mPending.size(); i++) {
+            if (distance(mPending.get(i).page) > distance(mPending.get(farthest).page)) {
+                farthest = i;
+            }
+        }
+        return farthest;
+    }
+
+    /**
+     * Removes and returns the pending page nearest the landing page, preferring pages waiting
+     * to be shown, or null once shut down.
+     */
+    private Task takeNearest() throws InterruptedException {
+        synchronized (mPending) {
+            while (mPending.isEmpty() && !mShutdown) {
+                mPending.wait();
+            }
+            if (mShutdown) return null;
+            int best = 0;
+            for (int i = 1; i < mPending.size(); i++) {
+                Task t = mPending.get(i);
+                Task b = mPending.get(best);
+                int distance = distance(t.page);
+                int bestDistance = distance(b.page);
+                if (distance < bestDistance
+                        || distance == bestDistance && t.deliver && !b.deliver) {
+                    best = i;
+                }
+            }
+            return mPending.remove(best);
+        }
+    }
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            try {
+                Task task;
+                while ((task = takeNearest()) != null) {
+                    load(task);
+                }
+            } catch (InterruptedException e) {
+                // shutting down
+            }
+        }
+    };
+
+    private void load(Task task) {
+        final List<ResolveInfo> appList;
+        synchronized (mPending) {
+            appList = mAppList;
+        }
+        final int first = task.page * mIconsPerPage;
+        final int last = Math.min(first + mIconsPerPage, appList.size());
+        final Drawable[] icons = task.deliver ? new Drawable[last - first] : null;
+        for (int i = first; i < last; i++) {
+            synchronized (mPending) {
+                if (mShutdown || appList != mAppList) return;
+                if (!isInWindow(task.page)) {
+                    if (task.deliver) mDeferredPages.set(task.page);
+                    return;
+                }
+            }
+            ResolveInfo info = appList.get(i);
+            ComponentName component = new ComponentName(info.activityInfo.packageName,
+                    info.activityInfo.name);
+            if (icons != null) {
+                icons[i - first] = mIconCache.getIcon(component);
+            } else {
+                mIconCache.preload(component);
+            }
+        }
+        if (icons != null) deliver(new Result(appList, task.page, icons));
+    }
+
+    private void deliver(Result result) {
+        synchronized (mResults) {
+            mResults.add(result);
+            if (!mDeliveryPosted) {
+                mDeliveryPosted = true;
+                mHandler.post(mDeliverResults);
+            }
+        }
+    }
+
+    private final Runnable mDeliverResults = new Runnable() {
+        private final ArrayList<Result> mBatch = new ArrayList<Result>();
+
+        @Override
+        public void run() {
+            synchronized (mResults) {
+                mBatch.addAll(mResults);
+                mResults.clear();
+                mDeliveryPosted = false;
+            }
+            final List<ResolveInfo> appList;
+            synchronized (mPending) {
+                appList = mAppList;
+            }
+            for (Result r : mBatch) {
+                // pages loaded for a replaced app list would show the wrong icons
+                if (r.appList == appList) mCallback.onPageLoaded(r.page, r.icons);
+            }
+            mBatch.clear();
+        }
+    };
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+/**
+ * A {@link ColorMatrixKernel} that applies the matrix in linear light instead of directly to
+ * gamma encoded sRGB values.  Color channels are decoded through {@link SrgbTransfer#DECODE},
+ * transformed, clamped and re-encoded through the 12-bit {@link SrgbTransfer#ENCODE} table, so
+ * the only extra cost over the plain kernel is three table loads in each direction.  Alpha is
+ * already linear and is left as is.
+ *
+ * Brightness scales, saturation and hue rotation (whose luminance weights are defined for
+ * linear RGB) behave as intended in this mode.  Translation terms such as tint and contrast
+ * offsets are applied in linear units too, so the same chain looks different than it does in
+ * the default mode; the mode is opt-in for that reason.
+ */
+public class LinearLightKernel extends ColorMatrixKernel {
+
+    public LinearLightKernel(float[] matrix) {
+        super(matrix);
+    }
+
+    @Override
+    public int filter(int color) {
+        final float[] m = mMatrix;
+        final float[] decode = SrgbTransfer.DECODE;
+        final float r = decode[(color >> 16) & 0xff];
+        final float g = decode[(color >> 8) & 0xff];
+        final float b = decode[color & 0xff];
+        final float a = color >>> 24;
+        return (clamp(m[15] * r + m[16] * g + m[17] * b + m[18] * a + m[19]) << 24)
+                | (SrgbTransfer.encode(m[0] * r + m[1] * g + m[2] * b + m[3] * a + m[4]) << 16)
+                | (SrgbTransfer.encode(m[5] * r + m[6] * g + m[7] * b + m[8] * a + m[9]) << 8)
+                | SrgbTransfer.encode(m[10] * r + m[11] * g + m[12] * b + m[13] * a + m[14]);
+    }
+
+    @Override
+    public void filter(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dst.length, dstOffset, count);
+
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i] = filter(src[srcOffset + i]);
+        }
+    }
+}
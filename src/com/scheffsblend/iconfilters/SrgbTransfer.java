@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+/**
+ * Shared lookup tables for the sRGB transfer function.  Decoding maps each 8-bit sRGB level to
+ * linear light in [0, 255] units so color matrices keep their usual scale; encoding maps linear
+ * light quantized to 12 bits back to an 8-bit sRGB level.  Both tables are built once, when the
+ * class is first used, and never change.
+ */
+class SrgbTransfer {
+    static final int ENCODE_SIZE = 4096;
+
+    /** sRGB level to linear light, in [0, 255] units. */
+    static final float[] DECODE = buildDecode();
+    /** Linear light quantized to [0, ENCODE_SIZE - 1] to an unsigned sRGB level. */
+    static final byte[] ENCODE = buildEncode();
+
+    private static final float LINEAR_TO_INDEX = (ENCODE_SIZE - 1) / 255f;
+
+    private SrgbTransfer() {
+    }
+
+    /**
+     * Encodes a linear value in [0, 255] units to an sRGB level, clamping out of range values.
+     */
+    static int encode(float linear) {
+        if (!(linear > 0f)) return 0;
+        if (linear >= 255f) return 255;
+        return ENCODE[(int) (linear * LINEAR_TO_INDEX + 0.5f)] & 0xff;
+    }
+
+    private static float[] buildDecode() {
+        float[] table = new float[256];
+        for (int i = 0; i < 256; i++) {
+            double c = i / 255.0;
+            double linear = c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+            table[i] = (float) (linear * 255);
+        }
+        return table;
+    }
+
+    private static byte[] buildEncode() {
+        byte[] table = new byte[ENCODE_SIZE];
+        for (int i = 0; i < ENCODE_SIZE; i++) {
+            double linear = i / (double) (ENCODE_SIZE - 1);
+            double c = linear <= 0.0031308
+                    ? linear * 12.92 : 1.055 * Math.pow(linear, 1 / 2.4) - 0.055;
+            table[i] = (byte) Math.round(c * 255);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+/**
+ * A {@link ColorMatrixKernel} that applies a filter chain one stage at a time and clamps every
+ * channel to [0, 255] between stages, the way a renderer that runs each filter separately does.
+ * The single fused matrix skips those intermediate clamps, so the two differ whenever a stage
+ * pushes a channel out of range and a later stage brings it back, for example brightness 200
+ * followed by brightness 50.
+ *
+ * {@link #compile(FilterChain)} uses interval arithmetic to decide which path is needed.  It
+ * bounds every channel after each stage, starting from the full [0, 255] range, and only when
+ * some bound can leave [0, 255] before the last stage does it return a staged kernel; otherwise
+ * the fused matrix is proven to give the same result and its fastest kernel is used.
+ * Intermediate values are clamped but not rounded so the two paths agree whenever the proof
+ * holds.
+ *
+ * Pass the chain as the user built it, not a {@link FilterChainOptimizer} result: merging
+ * brightness 200 and brightness 50 into an identity is exact for the fused matrix but removes
+ * the clamp between them.
+ */
+public class StagedColorMatrixKernel extends ColorMatrixKernel {
+    private static final int SIZE = ColorMatrixComposer.MATRIX_SIZE;
+
+    private final float[] mStages;
+    private final int mStageCount;
+
+    /**
+     * Creates a staged kernel for chain.  Prefer {@link #compile(FilterChain)}, which only uses
+     * the staged path when it is needed.
+     */
+    public StagedColorMatrixKernel(FilterChain chain) {
+        super(fuse(chain));
+        mStageCount = chain.size();
+        mStages = new float[Math.max(1, mStageCount) * SIZE];
+        float[] stage = new float[SIZE];
+        for (int i = 0; i < mStageCount; i++) {
+            chain.getStageMatrix(i, stage);
+            System.arraycopy(stage, 0, mStages, i * SIZE, SIZE);
+        }
+    }
+
+    /**
+     * Returns a kernel for chain that matches stage by stage clamping: the fused matrix kernel
+     * when {@link #needsIntermediateClamping} proves no clamp can trigger, otherwise a staged
+     * kernel.
+     */
+    public static ColorMatrixKernel compile(FilterChain chain) {
+        if (needsIntermediateClamping(chain)) {
+            return new StagedColorMatrixKernel(chain);
+        }
+        return ColorMatrixKernel.compile(fuse(chain));
+    }
+
+    /**
+     * Returns true unless every channel provably stays within [0, 255] after each stage but the
+     * last, for every possible input color.  The analysis is conservative: a true result means
+     * a clamp may be needed, not that one will be.
+     */
+    public static boolean needsIntermediateClamping(FilterChain chain) {
+        final float[] m = new float[SIZE];
+        final double[] lo = {0, 0, 0, 0};
+        final double[] hi = {255, 255, 255, 255};
+        final double[] newLo = new double[4];
+        final double[] newHi = new double[4];
+        for (int stage = 0; stage < chain.size() - 1; stage++) {
+            chain.getStageMatrix(stage, m);
+            for (int row = 0; row < 4; row++) {
+                double min = m[row * 5 + 4];
+                double max = min;
+                for (int col = 0; col < 4; col++) {
+                    double c = m[row * 5 + col];
+                    if (c >= 0) {
+                        min += c * lo[col];
+                        max += c * hi[col];
+                    } else {
+                        min += c * hi[col];
+                        max += c * lo[col];
+                    }
+                }
+                if (!(min >= 0 && max <= 255)) return true;
+                newLo[row] = min;
+                newHi[row] = max;
+            }
+            System.arraycopy(newLo, 0, lo, 0, 4);
+            System.arraycopy(newHi, 0, hi, 0, 4);
+        }
+        return false;
+    }
+
+    @Override
+    public int filter(int color) {
+        final float[] s = mStages;
+        float r = (color >> 16) & 0xff;
+        float g = (color >> 8) & 0xff;
+        float b = color & 0xff;
+        float a = color >>> 24;
+        for (int i = 0; i < mStageCount; i++) {
+            final int o = i * SIZE;
+            float nr = s[o] * r + s[o + 1] * g + s[o + 2] * b + s[o + 3] * a + s[o + 4];
+            float ng = s[o + 5] * r + s[o + 6] * g + s[o + 7] * b + s[o + 8] * a + s[o + 9];
+            float nb = s[o + 10] * r + s[o + 11] * g + s[o + 12] * b + s[o + 13] * a + s[o + 14];
+            float na = s[o + 15] * r + s[o + 16] * g + s[o + 17] * b + s[o + 18] * a + s[o + 19];
+            r = clampUnrounded(nr);
+            g = clampUnrounded(ng);
+            b = clampUnrounded(nb);
+            a = clampUnrounded(na);
+        }
+        return pack(a, r, g, b);
+    }
+
+    @Override
+    public void filter(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dst.length, dstOffset, count);
+
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i] = filter(src[srcOffset + i]);
+        }
+    }
+
+    private static float clampUnrounded(float value) {
+        if (value >= 255f) return 255f;
+        if (value > 0f) return value;
+        return 0f;
+    }
+
+    private static float[] fuse(FilterChain chain) {
+        ColorMatrixComposer composer = new ColorMatrixComposer();
+        chain.compose(composer);
+        return composer.getArray();
+    }
+}
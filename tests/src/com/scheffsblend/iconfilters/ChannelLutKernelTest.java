@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelLutKernelTest {
+    private static final int MATRICES = 500;
+
+    @Test
+    public void matchesFloatKernelExactlyOnEveryLevel() {
+        Random random = new Random(12);
+        // one pixel per level of every channel, plus random mixes of levels
+        int[] src = TestPixels.randomPixels(random, 1256);
+        for (int i = 0; i < 256; i++) {
+            src[1000 + i] = i * 0x01010101;
+        }
+        for (int n = 0; n < MATRICES; n++) {
+            float[] m = randomDiagonalMatrix(random);
+            int[] expected = new int[src.length];
+            new ColorMatrixKernel(m).filter(src, 0, expected, 0, src.length);
+            int[] actual = new int[src.length];
+            new ChannelLutKernel(m).filter(src, 0, actual, 0, src.length);
+            assertArrayEquals("matrix " + n, expected, actual);
+        }
+    }
+
+    @Test
+    public void singleColorMatchesArrayPath() {
+        Random random = new Random(13);
+        ChannelLutKernel kernel = new ChannelLutKernel(randomDiagonalMatrix(random));
+        int[] src = TestPixels.randomPixels(random, 1000);
+        int[] array = new int[src.length];
+        kernel.filter(src, 0, array, 0, src.length);
+        for (int i = 0; i < src.length; i++) {
+            assertEquals(array[i], kernel.filter(src[i]));
+        }
+    }
+
+    @Test
+    public void tablesHoldClampedChannelValues() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setIdentity(m);
+        m[0] = 2;
+        m[4] = -10;
+        byte[] red = new ChannelLutKernel(m).getLut(0, new byte[256]);
+        assertEquals(0, red[5] & 0xff);
+        assertEquals(0, red[0] & 0xff);
+        assertEquals(90, red[50] & 0xff);
+        assertEquals(255, red[200] & 0xff);
+    }
+
+    @Test
+    public void compilesDiagonalStagesToLookupTables() {
+        ColorMatrixComposer composer = new ColorMatrixComposer();
+        composer.brightness(150).contrast(-30).alpha(80).invertColors().tint(0x80336699);
+        assertTrue(ColorMatrixKernel.compile(composer.getArray())
+                instanceof ChannelLutKernel);
+    }
+
+    @Test
+    public void compilesCrossChannelStagesToFullKernel() {
+        ColorMatrixComposer composer = new ColorMatrixComposer();
+        composer.brightness(150).hue(30);
+        assertFalse(ColorMatrixKernel.compile(composer.getArray()) instanceof ChannelLutKernel);
+        composer.reset();
+        composer.saturate(50);
+        assertFalse(ColorMatrixKernel.compile(composer.getArray()) instanceof ChannelLutKernel);
+    }
+
+    @Test
+    public void detectsDiagonalMatrices() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setIdentity(m);
+        m[1] = -0f;
+        assertTrue(ChannelLutKernel.isDiagonal(m));
+        m[1] = 0.001f;
+        assertFalse(ChannelLutKernel.isDiagonal(m));
+        m[1] = 0;
+        m[18] = Float.NaN;
+        assertFalse(ChannelLutKernel.isDiagonal(m));
+        m[18] = 1;
+        m[9] = Float.POSITIVE_INFINITY;
+        assertFalse(ChannelLutKernel.isDiagonal(m));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCrossChannelTerms() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setHue(m, 45);
+        new ChannelLutKernel(m);
+    }
+
+    /**
+     * Returns a matrix with only diagonal and translation terms, sized so many levels clamp.
+     */
+    private static float[] randomDiagonalMatrix(Random random) {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        for (int row = 0; row < 4; row++) {
+            m[row * 6] = random.nextFloat() * 4 - 2;
+            m[row * 5 + 4] = random.nextFloat() * 510 - 255;
+        }
+        return m;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ColorCubeKernelTest {
+    private static final int MATRICES = 100;
+    private static final int PIXELS = 1000;
+    private static final int[] SIZES = {ColorCubeKernel.MIN_SIZE, 5, 17, 33};
+
+    @Test
+    public void reproducesAffineMatricesWithinOneLevel() {
+        Random random = new Random(14);
+        for (int size : SIZES) {
+            for (int n = 0; n < MATRICES; n++) {
+                float[] m = TestPixels.randomMatrix(random);
+                int[] src = TestPixels.randomPixels(random, PIXELS);
+                int[] expected = new int[PIXELS];
+                new ColorMatrixKernel(m).filter(src, 0, expected, 0, PIXELS);
+                int[] actual = new int[PIXELS];
+                new ColorCubeKernel(m, size).filter(src, 0, actual, 0, PIXELS);
+                // the cube adds the alpha and translation terms in a different order
+                TestPixels.assertPixelsWithin("size " + size + " matrix " + n, expected, actual,
+                        1);
+            }
+        }
+    }
+
+    @Test
+    public void bakesChainsLikeTheComposer() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_HUE, 60).add(FilterChain.TYPE_SATURATION, 140)
+                .add(FilterChain.TYPE_CONTRAST, 25).add(FilterChain.TYPE_TINT, 0x40ff8000)
+                .add(FilterChain.TYPE_ALPHA, 70);
+        ColorMatrixComposer composer = new ColorMatrixComposer();
+        chain.compose(composer);
+        int[] src = TestPixels.randomPixels(new Random(15), PIXELS);
+        int[] expected = new int[PIXELS];
+        new ColorMatrixKernel(composer.getArray()).filter(src, 0, expected, 0, PIXELS);
+        int[] actual = new int[PIXELS];
+        ColorCubeKernel.fromChain(chain, ColorCubeKernel.DEFAULT_SIZE)
+                .filter(src, 0, actual, 0, PIXELS);
+        TestPixels.assertPixelsWithin("chain", expected, actual, 1);
+    }
+
+    @Test
+    public void singleColorMatchesArrayPath() {
+        Random random = new Random(16);
+        ColorCubeKernel kernel = new ColorCubeKernel(TestPixels.randomMatrix(random));
+        int[] src = TestPixels.randomPixels(random, PIXELS);
+        int[] array = new int[PIXELS];
+        kernel.filter(src, 0, array, 0, PIXELS);
+        for (int i = 0; i < PIXELS; i++) {
+            assertEquals(array[i], kernel.filter(src[i]));
+        }
+    }
+
+    @Test
+    public void writesCubeFormatWithRedFastest() throws IOException {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setIdentity(m);
+        m[4] = -51;
+        StringBuilder sb = new StringBuilder();
+        new ColorCubeKernel(m, 3).writeCube(sb, "say \"hi\"");
+        String[] lines = sb.toString().split("\n");
+
+        assertEquals(4 + 27, lines.length);
+        assertEquals("TITLE \"say 'hi'\"", lines[0]);
+        assertEquals("LUT_3D_SIZE 3", lines[1]);
+        assertEquals("DOMAIN_MIN 0.0 0.0 0.0", lines[2]);
+        assertEquals("DOMAIN_MAX 1.0 1.0 1.0", lines[3]);
+        // red is offset by -0.2 and clamped at 0, green and blue pass through
+        assertEquals("0.000000 0.000000 0.000000", lines[4]);
+        assertEquals("0.300000 0.000000 0.000000", lines[5]);
+        assertEquals("0.800000 0.000000 0.000000", lines[6]);
+        assertEquals("0.000000 0.500000 0.000000", lines[7]);
+        assertEquals("0.800000 1.000000 1.000000", lines[30]);
+    }
+
+    @Test
+    public void writesNoTitleLineWithoutTitle() throws IOException {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        StringBuilder sb = new StringBuilder();
+        new ColorCubeKernel(m, 2).writeCube(sb, null);
+        assertArrayEquals(new String[] {
+                "LUT_3D_SIZE 2", "DOMAIN_MIN 0.0 0.0 0.0", "DOMAIN_MAX 1.0 1.0 1.0"
+        }, Arrays.copyOf(sb.toString().split("\n"), 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCubeTooSmall() {
+        new ColorCubeKernel(new float[ColorMatrixComposer.MATRIX_SIZE],
+                ColorCubeKernel.MIN_SIZE - 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCubeTooLarge() {
+        new ColorCubeKernel(new float[ColorMatrixComposer.MATRIX_SIZE],
+                ColorCubeKernel.MAX_SIZE + 1);
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the composer against matrices written out the way the original ColorFilterUtils built
+ * them with {@link android.graphics.ColorMatrix}, composed in double precision with
+ * postConcat semantics: each new stage multiplies the composed matrix from the left.
+ */
+public class ColorMatrixComposerTest {
+    private static final float TOLERANCE = 1e-5f;
+    private static final double LUM_R = 0.213;
+    private static final double LUM_G = 0.715;
+    private static final double LUM_B = 0.072;
+
+    @Test
+    public void eachStageMatchesTheReference() {
+        float[] values = {-180, -100, -45.5f, -1, 0, 0.25f, 1, 30, 90, 100, 179, 180, 200, 360};
+        for (float value : values) {
+            assertStage("hue " + value, hue(value), new ColorMatrixComposer().hue(value));
+        }
+        for (float value = 0; value <= 200; value += 12.5f) {
+            assertStage("saturation " + value, saturation(value),
+                    new ColorMatrixComposer().saturate(value));
+            assertStage("brightness " + value, scale(value / 100, 1),
+                    new ColorMatrixComposer().brightness(value));
+            assertStage("alpha " + value, scale(1, value / 100),
+                    new ColorMatrixComposer().alpha(value));
+            assertStage("contrast " + (value - 100), contrast(value - 100),
+                    new ColorMatrixComposer().contrast(value - 100));
+        }
+        assertStage("invert", invert(), new ColorMatrixComposer().invertColors());
+        int[] colors = {0, 0xffffffff, 0x80ff0000, 0x4000ff00, 0xc00000ff, 0x01336699};
+        for (int color : colors) {
+            assertStage("tint " + Integer.toHexString(color), tint(color),
+                    new ColorMatrixComposer().tint(color));
+        }
+    }
+
+    @Test
+    public void staticSettersMatchTheStageMethods() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setHue(m, 37.5f);
+        assertClose("hue", hue(37.5f), m);
+        ColorMatrixComposer.setSaturation(m, 40);
+        assertClose("saturation", saturation(40), m);
+        ColorMatrixComposer.setBrightness(m, 120);
+        assertClose("brightness", scale(1.2, 1), m);
+        ColorMatrixComposer.setContrast(m, -35);
+        assertClose("contrast", contrast(-35), m);
+        ColorMatrixComposer.setAlpha(m, 60);
+        assertClose("alpha", scale(1, 0.6), m);
+        ColorMatrixComposer.setInvert(m);
+        assertClose("invert", invert(), m);
+        ColorMatrixComposer.setTint(m, 0x80112233);
+        assertClose("tint", tint(0x80112233), m);
+        ColorMatrixComposer.setScale(m, 2, 3, 4, 5);
+        assertClose("scale", new double[] {
+                2, 0, 0, 0, 0,
+                0, 3, 0, 0, 0,
+                0, 0, 4, 0, 0,
+                0, 0, 0, 5, 0}, m);
+        ColorMatrixComposer.setIdentity(m);
+        assertClose("identity", scale(1, 1), m);
+    }
+
+    @Test
+    public void concatAppliesTheSecondMatrixFirst() {
+        // invert then halve brightness maps white to black; the other order maps it to 127.5
+        float[] invert = new float[ColorMatrixComposer.MATRIX_SIZE];
+        float[] half = new float[ColorMatrixComposer.MATRIX_SIZE];
+        float[] out = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setInvert(invert);
+        ColorMatrixComposer.setBrightness(half, 50);
+
+        ColorMatrixComposer.concat(half, invert, out);
+        assertClose("half after invert", multiply(scale(0.5, 1), invert()), out);
+        assertEquals(0, apply(out, 255), 0);
+
+        ColorMatrixComposer.concat(invert, half, out);
+        assertClose("invert after half", multiply(invert(), scale(0.5, 1)), out);
+        assertEquals(127.5, apply(out, 255), 1e-4);
+    }
+
+    @Test
+    public void concatAtOffsetsMatchesConcat() {
+        Random random = new Random(34);
+        float[] packed = new float[ColorMatrixComposer.MATRIX_SIZE * 4];
+        for (int i = 0; i < ColorMatrixComposer.MATRIX_SIZE * 2; i++) {
+            packed[i] = random.nextFloat() * 4 - 2;
+        }
+        float[] a = new float[ColorMatrixComposer.MATRIX_SIZE];
+        float[] b = new float[ColorMatrixComposer.MATRIX_SIZE];
+        float[] expected = new float[ColorMatrixComposer.MATRIX_SIZE];
+        System.arraycopy(packed, 0, a, 0, a.length);
+        System.arraycopy(packed, ColorMatrixComposer.MATRIX_SIZE, b, 0, b.length);
+        ColorMatrixComposer.concat(a, b, expected);
+        ColorMatrixComposer.concat(packed, 0, packed, ColorMatrixComposer.MATRIX_SIZE, packed,
+                ColorMatrixComposer.MATRIX_SIZE * 3);
+        for (int i = 0; i < ColorMatrixComposer.MATRIX_SIZE; i++) {
+            assertEquals(expected[i], packed[ColorMatrixComposer.MATRIX_SIZE * 3 + i], 0);
+        }
+    }
+
+    @Test
+    public void chainsComposeInListOrder() {
+        Random random = new Random(35);
+        for (int n = 0; n < 1000; n++) {
+            FilterChain chain = TestChains.randomChain(random, 1 + random.nextInt(8));
+            ColorMatrixComposer composer = new ColorMatrixComposer();
+            chain.compose(composer);
+
+            double[] expected = scale(1, 1);
+            for (int i = 0; i < chain.size(); i++) {
+                expected = multiply(stage(chain.getType(i), chain.getValue(i)), expected);
+            }
+            assertClose("chain " + n, expected, composer.getArray());
+        }
+    }
+
+    @Test
+    public void resetReturnsToIdentity() {
+        ColorMatrixComposer composer = new ColorMatrixComposer();
+        composer.hue(30).saturate(150).invertColors();
+        assertEquals(3, composer.getStageCount());
+        composer.reset();
+        assertEquals(0, composer.getStageCount());
+        assertClose("reset", scale(1, 1), composer.getArray());
+        composer.brightness(50);
+        assertStage("after reset", scale(0.5, 1), composer);
+    }
+
+    private static void assertStage(String message, double[] expected,
+            ColorMatrixComposer composer) {
+        assertEquals(message, 1, composer.getStageCount());
+        assertClose(message, expected, composer.getArray());
+    }
+
+    private static void assertClose(String message, double[] expected, float[] actual) {
+        for (int i = 0; i < ColorMatrixComposer.MATRIX_SIZE; i++) {
+            // translations are in channel levels and often large, so compare them relatively
+            double tolerance = i % 5 == 4 ? TOLERANCE * Math.max(255, Math.abs(expected[i]))
+                    : TOLERANCE * Math.max(1, Math.abs(expected[i]));
+            assertEquals(message + " coefficient " + i, expected[i], actual[i], tolerance);
+        }
+    }
+
+    /**
+     * Applies m to an opaque gray pixel and returns its red channel, unclamped.
+     */
+    private static double apply(float[] m, double level) {
+        return m[0] * level + m[1] * level + m[2] * level + m[3] * 255 + m[4];
+    }
+
+    /**
+     * Returns a * b as 5x5 matrices with an implicit last row of [0, 0, 0, 0, 1].
+     */
+    private static double[] multiply(double[] a, double[] b) {
+        double[] out = new double[ColorMatrixComposer.MATRIX_SIZE];
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 5; col++) {
+                double sum = col == 4 ? a[row * 5 + 4] : 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += a[row * 5 + k] * b[k * 5 + col];
+                }
+                out[row * 5 + col] = sum;
+            }
+        }
+        return out;
+    }
+
+    private static double[] stage(int type, double value) {
+        switch (type) {
+            case FilterChain.TYPE_HUE:
+                return hue(value);
+            case FilterChain.TYPE_SATURATION:
+                return saturation(value);
+            case FilterChain.TYPE_BRIGHTNESS:
+                return scale(value / 100, 1);
+            case FilterChain.TYPE_CONTRAST:
+                return contrast(value);
+            case FilterChain.TYPE_ALPHA:
+                return scale(1, value / 100);
+            case FilterChain.TYPE_INVERT:
+                return value != 0 ? invert() : scale(1, 1);
+            default:
+                return tint((int) value);
+        }
+    }
+
+    private static double[] hue(double degrees) {
+        double c = Math.cos(Math.toRadians(degrees));
+        double s = Math.sin(Math.toRadians(degrees));
+        return new double[] {
+                LUM_R + c * (1 - LUM_R) - s * LUM_R, LUM_G - c * LUM_G - s * LUM_G,
+                LUM_B - c * LUM_B + s * (1 - LUM_B), 0, 0,
+                LUM_R - c * LUM_R + s * 0.143, LUM_G + c * (1 - LUM_G) + s * 0.140,
+                LUM_B - c * LUM_B - s * 0.283, 0, 0,
+                LUM_R - c * LUM_R - s * (1 - LUM_R), LUM_G - c * LUM_G + s * LUM_G,
+                LUM_B + c * (1 - LUM_B) + s * LUM_B, 0, 0,
+                0, 0, 0, 1, 0};
+    }
+
+    /**
+     * Same as ColorMatrix.setSaturation(percent / 100).
+     */
+    private static double[] saturation(double percent) {
+        double sat = percent / 100;
+        double r = LUM_R * (1 - sat);
+        double g = LUM_G * (1 - sat);
+        double b = LUM_B * (1 - sat);
+        return new double[] {
+                r + sat, g, b, 0, 0,
+                r, g + sat, b, 0, 0,
+                r, g, b + sat, 0, 0,
+                0, 0, 0, 1, 0};
+    }
+
+    private static double[] scale(double rgb, double alpha) {
+        return new double[] {
+                rgb, 0, 0, 0, 0,
+                0, rgb, 0, 0, 0,
+                0, 0, rgb, 0, 0,
+                0, 0, 0, alpha, 0};
+    }
+
+    private static double[] contrast(double percent) {
+        double c = percent / 100 + 1;
+        double o = (-0.5 * c + 0.5) * 255;
+        return new double[] {
+                c, 0, 0, 0, o,
+                0, c, 0, 0, o,
+                0, 0, c, 0, o,
+                0, 0, 0, 1, 0};
+    }
+
+    private static double[] invert() {
+        return new double[] {
+                -1, 0, 0, 0, 255,
+                0, -1, 0, 0, 255,
+                0, 0, -1, 0, 255,
+                0, 0, 0, 1, 0};
+    }
+
+    private static double[] tint(int color) {
+        double alpha = (color >>> 24) / 255.0;
+        return new double[] {
+                1, 0, 0, 0, ((color >> 16) & 0xff) * alpha,
+                0, 1, 0, 0, ((color >> 8) & 0xff) * alpha,
+                0, 0, 1, 0, (color & 0xff) * alpha,
+                0, 0, 0, 1, 0};
+    }
+}
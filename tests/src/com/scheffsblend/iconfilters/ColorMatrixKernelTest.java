@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ColorMatrixKernelTest {
+    private static final int MATRICES = 200;
+    private static final int PIXELS = 1000;
+
+    @Test
+    public void matchesDoubleReferenceWithinOneLevel() {
+        Random random = new Random(6);
+        int exact = 0;
+        for (int n = 0; n < MATRICES; n++) {
+            float[] m = TestPixels.randomMatrix(random);
+            int[] src = TestPixels.randomPixels(random, PIXELS);
+            int[] expected = new int[PIXELS];
+            for (int i = 0; i < PIXELS; i++) {
+                expected[i] = TestPixels.reference(m, src[i]);
+            }
+            int[] dst = new int[PIXELS];
+            new ColorMatrixKernel(m).filter(src, 0, dst, 0, PIXELS);
+            // float sums can land on the other side of a .5 rounding boundary
+            TestPixels.assertPixelsWithin("matrix " + n, expected, dst, 1);
+            for (int i = 0; i < PIXELS; i++) {
+                if (expected[i] == dst[i]) exact++;
+            }
+        }
+        // off by one must stay a rare rounding case, not a systematic bias
+        assertEquals(1.0, (double) exact / (MATRICES * PIXELS), 0.001);
+    }
+
+    @Test
+    public void identityKeepsEveryPixel() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setIdentity(m);
+        int[] src = TestPixels.randomPixels(new Random(1), PIXELS);
+        int[] dst = new int[PIXELS];
+        new ColorMatrixKernel(m).filter(src, 0, dst, 0, PIXELS);
+        assertArrayEquals(src, dst);
+    }
+
+    @Test
+    public void clampsEachChannelToByteRange() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        m[4] = 1000;
+        m[9] = -1000;
+        m[14] = Float.POSITIVE_INFINITY;
+        m[19] = Float.NEGATIVE_INFINITY;
+        ColorMatrixKernel kernel = new ColorMatrixKernel(m);
+        assertEquals(0x00ff00ff, kernel.filter(0x80808080));
+        assertEquals(0x00ff00ff, kernel.filter(0xffffffff));
+    }
+
+    @Test
+    public void mapsNanToZero() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setIdentity(m);
+        m[0] = Float.NaN;
+        assertEquals(0xff00ffff, new ColorMatrixKernel(m).filter(0xffffffff));
+    }
+
+    @Test
+    public void roundsHalfLevelsUp() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setIdentity(m);
+        m[0] = 0.5f;
+        m[6] = 0.5f;
+        // red 3 * 0.5 = 1.5 rounds to 2, green 2 * 0.5 = 1 stays 1
+        assertEquals(0xff020100, new ColorMatrixKernel(m).filter(0xff030200));
+    }
+
+    @Test
+    public void allPathsAgree() {
+        Random random = new Random(7);
+        float[] m = TestPixels.randomMatrix(random);
+        ColorMatrixKernel kernel = new ColorMatrixKernel(m);
+        int[] src = TestPixels.randomPixels(random, PIXELS);
+
+        int[] array = new int[PIXELS];
+        kernel.filter(src, 0, array, 0, PIXELS);
+
+        int[] single = new int[PIXELS];
+        for (int i = 0; i < PIXELS; i++) {
+            single[i] = kernel.filter(src[i]);
+        }
+        assertArrayEquals(array, single);
+
+        IntBuffer heap = IntBuffer.allocate(PIXELS);
+        kernel.filter(IntBuffer.wrap(src), heap);
+        assertEquals(PIXELS, heap.position());
+        assertArrayEquals(array, heap.array());
+
+        IntBuffer direct = ByteBuffer.allocateDirect(PIXELS * 4).asIntBuffer();
+        kernel.filter(IntBuffer.wrap(src), direct);
+        int[] fromDirect = new int[PIXELS];
+        direct.flip();
+        direct.get(fromDirect);
+        assertArrayEquals(array, fromDirect);
+
+        int[] inPlace = src.clone();
+        kernel.filter(inPlace, 0, inPlace, 0, PIXELS);
+        assertArrayEquals(array, inPlace);
+    }
+
+    @Test
+    public void filtersOnlyTheGivenRange() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        m[19] = 255;
+        int[] dst = new int[4];
+        new ColorMatrixKernel(m).filter(new int[] {1, 2, 3, 4}, 1, dst, 2, 2);
+        assertArrayEquals(new int[] {0, 0, 0xff000000, 0xff000000}, dst);
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void rejectsRangePastEnd() {
+        new ColorMatrixKernel(new float[ColorMatrixComposer.MATRIX_SIZE])
+                .filter(new int[4], 2, new int[4], 0, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWrongMatrixSize() {
+        new ColorMatrixKernel(new float[16]);
+    }
+}
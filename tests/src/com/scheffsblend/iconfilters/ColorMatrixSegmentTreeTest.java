@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColorMatrixSegmentTreeTest {
+    private static final int EDITS = 2000;
+    private static final int MAX_LENGTH = 12;
+
+    @Test
+    public void matchesFullCompositionAcrossRandomEdits() {
+        Random random = new Random(31);
+        ColorMatrixSegmentTree tree = new ColorMatrixSegmentTree();
+        FilterChain chain = new FilterChain();
+        float[] matrix = new float[ColorMatrixComposer.MATRIX_SIZE];
+        for (int n = 0; n < EDITS; n++) {
+            edit(random, chain);
+            tree.setChain(chain);
+            assertEquals(chain.size(), tree.size());
+            FilterChainOptimizerTest.assertMatrixClose("edit " + n, compose(chain),
+                    tree.getMatrix(matrix), 1e-4f);
+        }
+    }
+
+    @Test
+    public void changingOneStageRecomputesOnePath() {
+        Random random = new Random(32);
+        // 100 stages fill a tree of 128 leaves, seven levels above the leaves
+        FilterChain chain = new FilterChain();
+        for (int i = 0; i < 100; i++) {
+            chain.add(FilterChain.TYPE_SATURATION, 50 + random.nextInt(100));
+        }
+        ColorMatrixSegmentTree tree = new ColorMatrixSegmentTree();
+        tree.setChain(chain);
+
+        for (int i = 0; i < chain.size(); i += 7) {
+            int before = tree.getUpdateCount();
+            chain.setValue(i, chain.getValue(i) + 1);
+            tree.setChain(chain);
+            assertEquals("stage " + i, 7, tree.getUpdateCount() - before);
+        }
+
+        // setting the same chain again recomputes nothing
+        int before = tree.getUpdateCount();
+        tree.setChain(chain);
+        assertEquals(before, tree.getUpdateCount());
+
+        // swapping two stages recomputes two paths
+        double first = chain.getValue(3);
+        chain.setValue(3, chain.getValue(90));
+        chain.setValue(90, first);
+        tree.setChain(chain);
+        assertEquals(14, tree.getUpdateCount() - before);
+
+        float[] matrix = new float[ColorMatrixComposer.MATRIX_SIZE];
+        FilterChainOptimizerTest.assertMatrixClose("swapped", compose(chain),
+                tree.getMatrix(matrix), 1e-4f);
+    }
+
+    @Test
+    public void identityStagesKeepTheirLeaves() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_HUE, 40).add(FilterChain.TYPE_BRIGHTNESS, 100)
+                .add(FilterChain.TYPE_INVERT, 1);
+        ColorMatrixSegmentTree tree = new ColorMatrixSegmentTree();
+        tree.setChain(chain);
+
+        // only the middle leaf changes when it stops being the identity
+        int before = tree.getUpdateCount();
+        chain.setValue(1, 150);
+        tree.setChain(chain);
+        assertEquals(3, tree.getUpdateCount() - before);
+
+        float[] matrix = new float[ColorMatrixComposer.MATRIX_SIZE];
+        FilterChainOptimizerTest.assertMatrixClose("chain", compose(chain),
+                tree.getMatrix(matrix), 1e-4f);
+    }
+
+    @Test
+    public void emptyChainIsIdentity() {
+        ColorMatrixSegmentTree tree = new ColorMatrixSegmentTree();
+        tree.setChain(TestChains.randomChain(new Random(33), 20));
+        tree.setChain(new FilterChain());
+        float[] identity = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setIdentity(identity);
+        float[] matrix = new float[ColorMatrixComposer.MATRIX_SIZE];
+        FilterChainOptimizerTest.assertMatrixClose("empty", identity, tree.getMatrix(matrix),
+                0);
+    }
+
+    /**
+     * Makes one random edit of the kinds the designer makes: changing a value, replacing,
+     * appending or removing a stage, or swapping two stages.
+     */
+    private static void edit(Random random, FilterChain chain) {
+        int size = chain.size();
+        int kind = size == 0 ? 2 : random.nextInt(5);
+        if (kind == 2 && size == MAX_LENGTH) kind = 3;
+        int i = size == 0 ? 0 : random.nextInt(size);
+        switch (kind) {
+            case 0:
+                chain.setValue(i, TestChains.randomValue(random, chain.getType(i)));
+                break;
+            case 1:
+                int type = random.nextInt(TestChains.TYPE_COUNT);
+                chain.set(i, type, TestChains.randomValue(random, type));
+                break;
+            case 2:
+                type = random.nextInt(TestChains.TYPE_COUNT);
+                chain.add(type, TestChains.randomValue(random, type));
+                break;
+            case 3:
+                chain.removeLast();
+                break;
+            default:
+                int j = random.nextInt(size);
+                int swappedType = chain.getType(i);
+                double swappedValue = chain.getValue(i);
+                chain.set(i, chain.getType(j), chain.getValue(j));
+                chain.set(j, swappedType, swappedValue);
+                break;
+        }
+    }
+
+    private static float[] compose(FilterChain chain) {
+        ColorMatrixComposer composer = new ColorMatrixComposer();
+        chain.compose(composer);
+        return composer.getArray().clone();
+    }
+}
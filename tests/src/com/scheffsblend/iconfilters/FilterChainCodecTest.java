@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FilterChainCodecTest {
+    private static final int CHAINS = 1000;
+    private static final byte VERSION = FilterChainCodec.VERSION;
+
+    @Test
+    public void decodeOfEncodeIsIdentity() {
+        Random random = new Random(26);
+        FilterChain decoded = new FilterChain();
+        for (int n = 0; n < CHAINS; n++) {
+            FilterChain chain = TestChains.randomChain(random, random.nextInt(12));
+            byte[] encoded = FilterChainCodec.encode(chain);
+            TestChains.assertChainEquals(chain, FilterChainCodec.decode(encoded, decoded));
+            assertTrue(encoded.length <= FilterChainCodec.getMaxEncodedSize(chain.size()));
+        }
+    }
+
+    @Test
+    public void keepsFractionalAndExtremeValuesExactly() {
+        double[] values = {
+                0.1, -12.345678, 1e-300, -0.0, Double.NaN, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Long.MAX_VALUE, Long.MIN_VALUE, 1L << 62, -(1L << 62),
+                1e19, Double.MAX_VALUE, 0
+        };
+        FilterChain chain = new FilterChain();
+        for (double value : values) {
+            chain.add(FilterChain.TYPE_HUE, value);
+        }
+        byte[] encoded = FilterChainCodec.encode(chain);
+        assertTrue(encoded.length <= FilterChainCodec.getMaxEncodedSize(chain.size()));
+        FilterChain decoded = FilterChainCodec.decode(encoded, new FilterChain());
+        assertEquals(values.length, decoded.size());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals("value " + values[i], Double.doubleToRawLongBits(values[i]),
+                    Double.doubleToRawLongBits(decoded.getValue(i)));
+        }
+    }
+
+    @Test
+    public void typicalStagesTakeAFewBytes() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_HUE, 30).add(FilterChain.TYPE_SATURATION, 150)
+                .add(FilterChain.TYPE_INVERT, 1).add(FilterChain.TYPE_BRIGHTNESS, -40);
+        // version, count, 2 + 3 + 2 + 2 bytes of stages and the checksum
+        assertEquals(1 + 1 + 9 + 4, FilterChainCodec.encode(chain).length);
+    }
+
+    @Test
+    public void encodesAtAnOffset() {
+        Random random = new Random(27);
+        FilterChain chain = TestChains.randomChain(random, 8);
+        byte[] out = new byte[3 + FilterChainCodec.getMaxEncodedSize(chain.size()) + 3];
+        Arrays.fill(out, (byte) 0x55);
+        int length = FilterChainCodec.encode(chain, out, 3);
+
+        assertEquals(0x55, out[2]);
+        assertEquals(0x55, out[3 + length]);
+        assertTrue(Arrays.equals(FilterChainCodec.encode(chain),
+                Arrays.copyOfRange(out, 3, 3 + length)));
+        TestChains.assertChainEquals(chain,
+                FilterChainCodec.decode(out, 3, length, new FilterChain()));
+    }
+
+    @Test
+    public void emptyChainRoundTrips() {
+        FilterChain chain = FilterChainCodec.decode(FilterChainCodec.encode(new FilterChain()),
+                new FilterChain());
+        assertEquals(0, chain.size());
+    }
+
+    @Test
+    public void rejectsEveryCorruptedByte() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_HUE, 30).add(FilterChain.TYPE_CONTRAST, 12.5)
+                .add(FilterChain.TYPE_TINT, 0x80336699);
+        byte[] encoded = FilterChainCodec.encode(chain);
+        for (int i = 0; i < encoded.length; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                byte[] corrupt = encoded.clone();
+                corrupt[i] ^= 1 << bit;
+                assertRejected("byte " + i + " bit " + bit, corrupt, "checksum mismatch");
+            }
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedData() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_HUE, 30).add(FilterChain.TYPE_SATURATION, 150);
+        byte[] encoded = FilterChainCodec.encode(chain);
+        for (int length = 0; length < encoded.length; length++) {
+            assertRejected("length " + length, Arrays.copyOf(encoded, length), null);
+        }
+        try {
+            FilterChainCodec.decode(encoded, 1, encoded.length, new FilterChain());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Encoded filter chain is truncated", e.getMessage());
+        }
+    }
+
+    @Test
+    public void rejectsMalformedContentWithValidChecksum() {
+        // stage count varint runs into the checksum
+        assertRejected("count", withChecksum(VERSION, 0x81), "is corrupt");
+        // value varint runs into the checksum
+        assertRejected("value", withChecksum(VERSION, 1, 0, 0x80, 0x80), "is corrupt");
+        // varint longer than 64 bits
+        assertRejected("long varint", withChecksum(VERSION, 1, 0, 0x80, 0x80, 0x80, 0x80,
+                0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01), "is corrupt");
+        // double cut short
+        assertRejected("double", withChecksum(VERSION, 1, 0x80, 1, 2, 3), "is corrupt");
+        // fewer stages than the count
+        assertRejected("stages", withChecksum(VERSION, 3, 0, 2), "is corrupt");
+        // unknown type
+        assertRejected("type", withChecksum(VERSION, 1, 0x7f, 2), "is corrupt");
+        // trailing byte after the last stage
+        assertRejected("trailing", withChecksum(VERSION, 1, 0, 2, 0), "is corrupt");
+        // newer version
+        assertRejected("version", withChecksum(VERSION + 1, 0), "Unsupported");
+    }
+
+    @Test
+    public void acceptsHandWrittenEncoding() {
+        // hue 30, invert -1 (zigzag 1) and saturation 64 (zigzag 128, two varint bytes)
+        FilterChain chain = FilterChainCodec.decode(withChecksum(VERSION, 3,
+                FilterChain.TYPE_HUE, 60, FilterChain.TYPE_INVERT, 1,
+                FilterChain.TYPE_SATURATION, 0x80, 0x01), new FilterChain());
+        FilterChain expected = new FilterChain();
+        expected.add(FilterChain.TYPE_HUE, 30).add(FilterChain.TYPE_INVERT, -1)
+                .add(FilterChain.TYPE_SATURATION, 64);
+        TestChains.assertChainEquals(expected, chain);
+    }
+
+    /**
+     * Decodes data into a non-empty chain and checks that it throws and leaves the chain empty.
+     *
+     * @param message text the exception message must contain, or null for any
+     */
+    private static void assertRejected(String what, byte[] data, String message) {
+        FilterChain out = new FilterChain();
+        out.add(FilterChain.TYPE_HUE, 10);
+        try {
+            FilterChainCodec.decode(data, out);
+            fail(what + " decoded");
+        } catch (IllegalArgumentException e) {
+            if (message != null) {
+                assertTrue(what + ": " + e.getMessage(), e.getMessage().contains(message));
+            }
+        }
+        assertEquals(what, 0, out.size());
+    }
+
+    /**
+     * Returns the given bytes followed by their big endian FNV-1a checksum.
+     */
+    private static byte[] withChecksum(int... bytes) {
+        byte[] data = new byte[bytes.length + 4];
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < bytes.length; i++) {
+            data[i] = (byte) bytes[i];
+            hash = (hash ^ (bytes[i] & 0xff)) * 0x01000193;
+        }
+        for (int i = 0; i < 4; i++) {
+            data[bytes.length + i] = (byte) (hash >>> (24 - i * 8));
+        }
+        return data;
+    }
+}
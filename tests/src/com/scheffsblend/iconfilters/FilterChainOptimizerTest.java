@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FilterChainOptimizerTest {
+    private static final int CHAINS = 1000;
+
+    @Test
+    public void dropsIdentityStages() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_HUE, 0).add(FilterChain.TYPE_SATURATION, 100)
+                .add(FilterChain.TYPE_BRIGHTNESS, 100).add(FilterChain.TYPE_CONTRAST, 0)
+                .add(FilterChain.TYPE_ALPHA, 100).add(FilterChain.TYPE_INVERT, 0)
+                .add(FilterChain.TYPE_TINT, 0x00ff8000).add(FilterChain.TYPE_TINT, 0xff000000)
+                .add(FilterChain.TYPE_HUE, 360);
+        assertEquals(0, optimize(chain).size());
+
+        // each dropped stage really is the identity matrix
+        float[] identity = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setIdentity(identity);
+        float[] stage = new float[ColorMatrixComposer.MATRIX_SIZE];
+        for (int i = 0; i < chain.size(); i++) {
+            chain.getStageMatrix(i, stage);
+            assertMatrixClose("stage " + i, identity, stage, 1e-6f);
+        }
+    }
+
+    @Test
+    public void mergesEachAdjacentSameType() {
+        assertMerged(FilterChain.TYPE_HUE, 30, 20, 50);
+        assertMerged(FilterChain.TYPE_HUE, 170, 30, -160);
+        assertMerged(FilterChain.TYPE_HUE, -180, -90, 90);
+        assertMerged(FilterChain.TYPE_SATURATION, 50, 150, 75);
+        assertMerged(FilterChain.TYPE_BRIGHTNESS, 200, 25, 50);
+        assertMerged(FilterChain.TYPE_ALPHA, 80, 50, 40);
+        // (1 + 0.5) * (1 - 0.2) = 1.2
+        assertMerged(FilterChain.TYPE_CONTRAST, 50, -20, 20);
+    }
+
+    @Test
+    public void mergedStagesComposeToTheSameMatrix() {
+        Random random = new Random(28);
+        int[] types = {
+                FilterChain.TYPE_SATURATION, FilterChain.TYPE_BRIGHTNESS, FilterChain.TYPE_CONTRAST,
+                FilterChain.TYPE_ALPHA
+        };
+        for (int n = 0; n < CHAINS; n++) {
+            int type = types[random.nextInt(types.length)];
+            FilterChain chain = new FilterChain();
+            for (int i = 2 + random.nextInt(4); i > 0; i--) {
+                chain.add(type, TestChains.randomValue(random, type));
+            }
+            FilterChain optimized = optimize(chain);
+            assertTrue(optimized.size() <= 1);
+            assertMatrixClose("chain " + n, compose(chain), compose(optimized), 1e-4f);
+        }
+    }
+
+    @Test
+    public void mergedHueRotationsStayWithinTheDocumentedError() {
+        Random random = new Random(29);
+        for (int n = 0; n < CHAINS; n++) {
+            FilterChain chain = new FilterChain();
+            chain.add(FilterChain.TYPE_HUE, random.nextInt(361) - 180)
+                    .add(FilterChain.TYPE_HUE, random.nextInt(361) - 180);
+            assertMatrixClose("chain " + n, compose(chain), compose(optimize(chain)), 0.0019f);
+        }
+    }
+
+    @Test
+    public void invertsCancelInPairs() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_INVERT, 1).add(FilterChain.TYPE_INVERT, 1);
+        assertEquals(0, optimize(chain).size());
+
+        chain.add(FilterChain.TYPE_INVERT, 1);
+        FilterChain optimized = optimize(chain);
+        assertEquals(1, optimized.size());
+        assertEquals(FilterChain.TYPE_INVERT, optimized.getType(0));
+        assertEquals(1, optimized.getValue(0), 0);
+
+        // a disabled invert between two enabled ones is dropped first
+        chain.clear();
+        chain.add(FilterChain.TYPE_INVERT, 1).add(FilterChain.TYPE_INVERT, 0)
+                .add(FilterChain.TYPE_INVERT, 1);
+        assertEquals(0, optimize(chain).size());
+    }
+
+    @Test
+    public void removedStagesExposeFurtherMerges() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_HUE, 30).add(FilterChain.TYPE_INVERT, 1)
+                .add(FilterChain.TYPE_INVERT, 1).add(FilterChain.TYPE_HUE, -30);
+        assertEquals(0, optimize(chain).size());
+
+        chain.clear();
+        chain.add(FilterChain.TYPE_BRIGHTNESS, 50).add(FilterChain.TYPE_HUE, 0)
+                .add(FilterChain.TYPE_BRIGHTNESS, 200).add(FilterChain.TYPE_SATURATION, 120);
+        FilterChain expected = new FilterChain();
+        expected.add(FilterChain.TYPE_SATURATION, 120);
+        TestChains.assertChainEquals(expected, optimize(chain));
+    }
+
+    @Test
+    public void neverMergesTints() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_TINT, 0x80ff0000).add(FilterChain.TYPE_TINT, 0x8000ff00);
+        TestChains.assertChainEquals(chain, optimize(chain));
+    }
+
+    @Test
+    public void optimizesInPlace() {
+        Random random = new Random(30);
+        for (int n = 0; n < CHAINS; n++) {
+            FilterChain chain = TestChains.randomChain(random, random.nextInt(12));
+            FilterChain expected = optimize(chain);
+            FilterChainOptimizer.optimize(chain, chain);
+            TestChains.assertChainEquals(expected, chain);
+        }
+    }
+
+    private static void assertMerged(int type, double first, double second, double merged) {
+        FilterChain chain = new FilterChain();
+        chain.add(type, first).add(type, second);
+        FilterChain optimized = optimize(chain);
+        assertEquals(1, optimized.size());
+        assertEquals(type, optimized.getType(0));
+        assertEquals(merged, optimized.getValue(0), 1e-9);
+    }
+
+    private static FilterChain optimize(FilterChain chain) {
+        FilterChain out = new FilterChain();
+        FilterChainOptimizer.optimize(chain, out);
+        return out;
+    }
+
+    private static float[] compose(FilterChain chain) {
+        ColorMatrixComposer composer = new ColorMatrixComposer();
+        chain.compose(composer);
+        return composer.getArray().clone();
+    }
+
+    /**
+     * Checks every coefficient within tolerance, scaling it by 255 for the translation column,
+     * which is in channel levels rather than fractions.
+     */
+    static void assertMatrixClose(String message, float[] expected, float[] actual,
+            float tolerance) {
+        for (int i = 0; i < ColorMatrixComposer.MATRIX_SIZE; i++) {
+            float scale = i % 5 == 4 ? 255 : 1;
+            assertEquals(message + " coefficient " + i, expected[i], actual[i],
+                    tolerance * scale);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class FilterXmlParserTest {
+
+    @Test
+    public void parsesEveryFilterType() throws Exception {
+        FilterChain chain = parse("<resources>\n"
+                + "  <filter name=\"hue\">30</filter>\n"
+                + "  <filter name='saturation'> 120.5 </filter>\n"
+                + "  <filter name=\"invert\">TRUE</filter>\n"
+                + "  <filter name=\"brightness\">-20</filter>\n"
+                + "  <filter name=\"contrast\">+15</filter>\n"
+                + "  <filter name=\"alpha\">50</filter>\n"
+                + "  <filter name=\"tint\">#336699</filter>\n"
+                + "  <filter name=\"tint\">#80336699</filter>\n"
+                + "</resources>\n");
+        FilterChain expected = new FilterChain();
+        expected.add(FilterChain.TYPE_HUE, 30).add(FilterChain.TYPE_SATURATION, 120.5)
+                .add(FilterChain.TYPE_INVERT, 1).add(FilterChain.TYPE_BRIGHTNESS, -20)
+                .add(FilterChain.TYPE_CONTRAST, 15).add(FilterChain.TYPE_ALPHA, 50)
+                .add(FilterChain.TYPE_TINT, 0xff336699).add(FilterChain.TYPE_TINT, 0x80336699);
+        TestChains.assertChainEquals(expected, chain);
+    }
+
+    @Test
+    public void skipsOtherMarkup() throws Exception {
+        FilterChain chain = parse("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                + "<!-- <filter name=\"hue\">1</filter> -->\n"
+                + "<resources>\n"
+                + "  <item component=\"ComponentInfo{a/b}\" drawable=\"a\" />\n"
+                + "  <![CDATA[<filter name=\"hue\">2</filter>]]>\n"
+                + "  <filter name=\"hue\">3</filter>\n"
+                + "</resources>\n");
+        assertEquals(1, chain.size());
+        assertEquals(3, chain.getValue(0), 0);
+    }
+
+    @Test
+    public void skipsCommentsAndReadsCdataInsideFilter() throws Exception {
+        FilterChain chain = parse("<filter name=\"hue\"><!-- degrees -->4<![CDATA[5]]>"
+                + "<?pi x?></filter>\n"
+                + "<filter name=\"brightness\"><![CDATA[ 6]]><!--->-->0</filter>");
+        FilterChain expected = new FilterChain();
+        expected.add(FilterChain.TYPE_HUE, 45).add(FilterChain.TYPE_BRIGHTNESS, 60);
+        TestChains.assertChainEquals(expected, chain);
+    }
+
+    @Test
+    public void keepsBracketsInsideCdata() throws Exception {
+        try {
+            parse("<filter name=\"hue\"><![CDATA[ ]>]]]></filter>");
+            fail();
+        } catch (FilterParseException e) {
+            assertEquals("line 1: invalid value \"]>]\" for hue", e.getMessage());
+        }
+    }
+
+    @Test
+    public void skipsDoctypeInternalSubset() throws Exception {
+        FilterChain chain = parse("<!DOCTYPE resources [\n"
+                + "  <!ENTITY gt2 \">>\">\n"
+                + "  <!-- it's a ] comment > -->\n"
+                + "  <!ELEMENT filter (#PCDATA)>\n"
+                + "]>\n"
+                + "<filter name=\"alpha\">25</filter>\n");
+        assertEquals(1, chain.size());
+        assertEquals(FilterChain.TYPE_ALPHA, chain.getType(0));
+        assertEquals(25, chain.getValue(0), 0);
+    }
+
+    @Test(timeout = 5000)
+    public void endsAtTruncatedDeclarations() throws Exception {
+        String[] documents = {
+                "<!DOCTYPE x [<", "<!DOCTYPE x [<!", "<!DOCTYPE x [<!-", "<!DOCTYPE x [<!--",
+                "<!DOCTYPE x [<!-- a -", "<!DOCTYPE x [ \"", "<!DOCTYPE x [", "<!DOCTYPE x",
+                "<!", "<!-", "<![CDATA[", "<?xml", "<"
+        };
+        for (String document : documents) {
+            assertEquals(document, 0, parse(document).size());
+        }
+    }
+
+    @Test
+    public void reportsLineNumbers() throws Exception {
+        final List<String> errors = new ArrayList<String>();
+        final List<Integer> filterLines = new ArrayList<Integer>();
+        new FilterXmlParser().parse(new StringReader("<resources>\n"
+                + "<filter name=\"hue\">10</filter>\n"
+                + "<!-- one\n two -->\n"
+                + "<filter name=\"bogus\">1</filter>\n"
+                + "<filter>1</filter>\n"
+                + "<filter name=\"invert\">maybe</filter>\n"
+                + "<filter name=\"tint\">#12345</filter>\n"
+                + "<filter name=\"alpha\"/>\n"
+                + "<filter\n name=\"contrast\">5</filter>\n"), new FilterXmlParser.Handler() {
+            @Override
+            public void onFilter(int type, double value, int lineNumber) {
+                filterLines.add(lineNumber);
+            }
+
+            @Override
+            public void onError(String message, int lineNumber) {
+                errors.add(lineNumber + ": " + message);
+            }
+        });
+        assertEquals(2, filterLines.size());
+        assertEquals(2, (int) filterLines.get(0));
+        assertEquals(10, (int) filterLines.get(1));
+        assertEquals(5, errors.size());
+        assertEquals("5: unknown filter \"bogus\"", errors.get(0));
+        assertEquals("6: filter element has no name attribute", errors.get(1));
+        assertEquals("7: invalid value \"maybe\" for invert", errors.get(2));
+        assertEquals("8: invalid value \"#12345\" for tint", errors.get(3));
+        assertEquals("9: filter element has no value", errors.get(4));
+    }
+
+    @Test
+    public void rejectsInvalidNumbers() throws Exception {
+        String[] values = {"", "-", "1.2.3", "1e5", "abc", "0x10", "--1"};
+        for (String value : values) {
+            try {
+                parse("<filter name=\"hue\">" + value + "</filter>");
+                fail(value);
+            } catch (FilterParseException e) {
+                assertEquals(1, e.getLineNumber());
+            }
+        }
+    }
+
+    @Test
+    public void rejectsMalformedDocuments() throws Exception {
+        String[] documents = {
+                "<filter name=\"hue\">10",
+                "<filter name=\"hue\">10</item>",
+                "<filter name=\"hue\"><b>10</b></filter>",
+                "<filter name=hue>10</filter>",
+                "<filter name=\"hue>10</filter>"
+        };
+        for (String document : documents) {
+            try {
+                parse(document);
+                fail(document);
+            } catch (FilterParseException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void parserIsReusable() throws Exception {
+        FilterXmlParser parser = new FilterXmlParser();
+        try {
+            parser.parse(new StringReader("<filter name=\"hue\">x</filter>"), new FilterChain());
+            fail();
+        } catch (FilterParseException e) {
+            // expected
+        }
+        FilterChain chain = parser.parse(new StringReader("\n<filter name=\"hue\">7</filter>"),
+                new FilterChain());
+        assertEquals(7, chain.getValue(0), 0);
+    }
+
+    private static FilterChain parse(String xml) throws IOException, FilterParseException {
+        return new FilterXmlParser().parse(new StringReader(xml), new FilterChain());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FilterXmlSerializerTest {
+    private static final int CHAINS = 500;
+
+    @Test
+    public void parseOfSerializeIsIdentity() throws Exception {
+        Random random = new Random(23);
+        FilterXmlSerializer serializer = new FilterXmlSerializer();
+        FilterXmlParser parser = new FilterXmlParser();
+        for (int n = 0; n < CHAINS; n++) {
+            FilterChain chain = TestChains.randomChain(random, random.nextInt(10));
+            StringBuilder sb = new StringBuilder();
+            serializer.write(chain, sb);
+            FilterChain parsed = parser.parse(new StringReader(sb.toString()), new FilterChain());
+            TestChains.assertChainEquals(chain, parsed);
+        }
+    }
+
+    @Test
+    public void fractionalValuesKeepFourDecimals() throws Exception {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_HUE, 12.345678).add(FilterChain.TYPE_SATURATION, 100.5)
+                .add(FilterChain.TYPE_BRIGHTNESS, -0.00001).add(FilterChain.TYPE_CONTRAST, -7.25);
+        StringBuilder sb = new StringBuilder();
+        new FilterXmlSerializer().write(chain, sb);
+        assertEquals("<filter name=\"hue\">12.3457</filter>\r\n"
+                + "<filter name=\"saturation\">100.5</filter>\r\n"
+                + "<filter name=\"brightness\">0</filter>\r\n"
+                + "<filter name=\"contrast\">-7.25</filter>\r\n", sb.toString());
+
+        FilterChain parsed = new FilterXmlParser().parse(new StringReader(sb.toString()),
+                new FilterChain());
+        assertEquals(12.3457, parsed.getValue(0), 1e-9);
+        assertEquals(100.5, parsed.getValue(1), 0);
+        assertEquals(0, parsed.getValue(2), 0);
+        assertEquals(-7.25, parsed.getValue(3), 0);
+    }
+
+    @Test
+    public void writesInvertAndTint() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_INVERT, 1).add(FilterChain.TYPE_INVERT, 0)
+                .add(FilterChain.TYPE_TINT, 0x80336699);
+        StringBuilder sb = new StringBuilder();
+        new FilterXmlSerializer().write(chain, sb);
+        assertEquals("<filter name=\"invert\">true</filter>\r\n"
+                + "<filter name=\"invert\">false</filter>\r\n"
+                + "<filter name=\"tint\">#80336699</filter>\r\n", sb.toString());
+    }
+
+    @Test
+    public void allDestinationsWriteTheSameText() throws Exception {
+        Random random = new Random(24);
+        FilterXmlSerializer serializer = new FilterXmlSerializer();
+        for (int n = 0; n < CHAINS; n++) {
+            FilterChain chain = TestChains.randomChain(random, random.nextInt(10));
+            StringBuilder sb = new StringBuilder();
+            serializer.write(chain, sb);
+
+            StringWriter writer = new StringWriter();
+            serializer.write(chain, (Appendable) writer);
+            assertEquals(sb.toString(), writer.toString());
+
+            ByteBuffer buffer = ByteBuffer.allocate(sb.length() + 3);
+            buffer.put((byte) 'x');
+            serializer.write(chain, buffer);
+            assertEquals(1 + sb.length(), buffer.position());
+            assertEquals(sb.toString(), new String(buffer.array(), 1, sb.length(), "US-ASCII"));
+        }
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void byteBufferOverflowThrows() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_HUE, 30).add(FilterChain.TYPE_HUE, 60);
+        new FilterXmlSerializer().write(chain, ByteBuffer.allocate(40));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FixedPointColorMatrixKernelTest {
+    private static final int MATRICES = 200;
+    private static final int PIXELS = 1000;
+
+    @Test
+    public void staysWithinOneLevelOfFloatKernel() {
+        Random random = new Random(8);
+        for (int n = 0; n < MATRICES; n++) {
+            float[] m = TestPixels.randomMatrix(random);
+            int[] src = TestPixels.randomPixels(random, PIXELS);
+            FixedPointColorMatrixKernel kernel = new FixedPointColorMatrixKernel(m);
+            assertEquals(16, kernel.getFractionBits());
+            assertTrue("error bound " + kernel.getMaxError(), kernel.getMaxError() < 0.01f);
+
+            int[] expected = new int[PIXELS];
+            new ColorMatrixKernel(m).filter(src, 0, expected, 0, PIXELS);
+            int[] actual = new int[PIXELS];
+            kernel.filter(src, 0, actual, 0, PIXELS);
+            TestPixels.assertPixelsWithin("matrix " + n, expected, actual, 1);
+
+            int maxDelta = 0;
+            for (int i = 0; i < PIXELS; i++) {
+                maxDelta = Math.max(maxDelta, TestPixels.maxChannelDelta(expected[i], actual[i]));
+            }
+            assertEquals(maxDelta, kernel.measureMaxDeviation(src, 0, PIXELS));
+        }
+    }
+
+    @Test
+    public void staysWithinOneLevelOfDoubleReference() {
+        Random random = new Random(9);
+        for (int n = 0; n < MATRICES; n++) {
+            float[] m = TestPixels.randomMatrix(random);
+            FixedPointColorMatrixKernel kernel = new FixedPointColorMatrixKernel(m);
+            for (int color : TestPixels.randomPixels(random, PIXELS)) {
+                int delta = TestPixels.maxChannelDelta(TestPixels.reference(m, color),
+                        kernel.filter(color));
+                assertTrue("matrix " + n + " color " + Integer.toHexString(color), delta <= 1);
+            }
+        }
+    }
+
+    @Test
+    public void singleColorMatchesArrayPath() {
+        Random random = new Random(10);
+        FixedPointColorMatrixKernel kernel =
+                new FixedPointColorMatrixKernel(TestPixels.randomMatrix(random));
+        int[] src = TestPixels.randomPixels(random, PIXELS);
+        int[] array = new int[PIXELS];
+        kernel.filter(src, 0, array, 0, PIXELS);
+        int[] single = new int[PIXELS];
+        for (int i = 0; i < PIXELS; i++) {
+            single[i] = kernel.filter(src[i]);
+        }
+        assertArrayEquals(array, single);
+    }
+
+    @Test
+    public void dropsFractionBitsForLargeCoefficients() {
+        Random random = new Random(11);
+        float[] m = TestPixels.randomMatrix(random);
+        m[0] = 300;
+        m[4] = -40000;
+        FixedPointColorMatrixKernel kernel = new FixedPointColorMatrixKernel(m);
+        assertTrue(kernel.getFractionBits() < 16);
+        assertTrue(kernel.getFractionBits() >= 8);
+
+        int[] src = TestPixels.randomPixels(random, PIXELS);
+        int[] expected = new int[PIXELS];
+        new ColorMatrixKernel(m).filter(src, 0, expected, 0, PIXELS);
+        int[] actual = new int[PIXELS];
+        kernel.filter(src, 0, actual, 0, PIXELS);
+        TestPixels.assertPixelsWithin("large matrix", expected, actual,
+                1 + (int) Math.ceil(kernel.getMaxError()));
+    }
+
+    @Test
+    public void clampsEachChannelToByteRange() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        m[4] = 1000;
+        m[9] = -1000;
+        m[13] = 2;
+        FixedPointColorMatrixKernel kernel = new FixedPointColorMatrixKernel(m);
+        assertEquals(0x00ff00ff, kernel.filter(0xffffffff));
+        int[] out = new int[1];
+        kernel.filter(new int[] {0xffffffff}, 0, out, 0, 1);
+        assertEquals(0x00ff00ff, out[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNan() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        m[7] = Float.NaN;
+        new FixedPointColorMatrixKernel(m);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInfinity() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        m[19] = Float.NEGATIVE_INFINITY;
+        new FixedPointColorMatrixKernel(m);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMatrixTooLargeForEightBits() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        m[0] = 1e6f;
+        new FixedPointColorMatrixKernel(m);
+    }
+}
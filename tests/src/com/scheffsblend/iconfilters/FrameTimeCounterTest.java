@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameTimeCounterTest {
+    private static final long MILLIS = 1000000;
+
+    @Test
+    public void budgetFollowsRefreshRate() {
+        assertEquals(16666667, new FrameTimeCounter().getFrameBudgetNanos());
+        assertEquals(8333333, new FrameTimeCounter(120).getFrameBudgetNanos());
+        assertEquals(16666667, new FrameTimeCounter(0).getFrameBudgetNanos());
+        assertEquals(16666667, new FrameTimeCounter(Float.NaN).getFrameBudgetNanos());
+    }
+
+    @Test
+    public void countsMissedFramesAgainstTheBudget() {
+        // 8, 12 and 17 ms intervals: only 17 ms skips a vsync at 120 Hz, none does at 60 Hz
+        long[] frames = {0, 8 * MILLIS, 20 * MILLIS, 37 * MILLIS};
+        FrameTimeCounter fast = new FrameTimeCounter(120);
+        FrameTimeCounter slow = new FrameTimeCounter(60);
+        for (long frame : frames) {
+            fast.onFrame(1000 * MILLIS + frame, MILLIS);
+            slow.onFrame(1000 * MILLIS + frame, MILLIS);
+        }
+        assertEquals(3, fast.getFrameCount());
+        assertEquals(1, fast.getMissedFrameCount());
+        assertEquals(0, slow.getMissedFrameCount());
+        assertEquals(17, fast.getMaxIntervalMillis(), 0);
+
+        fast.reset();
+        assertEquals(0, fast.getFrameCount());
+        assertEquals(8333333, fast.getFrameBudgetNanos());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HueRotationTableTest {
+    @Test
+    public void matchesMathAtEveryIntegerAngle() {
+        for (int degrees = -180; degrees <= 180; degrees++) {
+            assertTrue(HueRotationTable.contains(degrees));
+            // bit for bit what setHue computes without the table
+            float radians = (float) degrees / 180 * (float) Math.PI;
+            assertEquals("cos " + degrees, (float) Math.cos(radians),
+                    HueRotationTable.cos(degrees), 0);
+            assertEquals("sin " + degrees, (float) Math.sin(radians),
+                    HueRotationTable.sin(degrees), 0);
+            // and within float rounding of the angle in double precision
+            assertEquals("cos " + degrees, Math.cos(Math.toRadians(degrees)),
+                    HueRotationTable.cos(degrees), 1e-6);
+            assertEquals("sin " + degrees, Math.sin(Math.toRadians(degrees)),
+                    HueRotationTable.sin(degrees), 1e-6);
+        }
+        assertFalse(HueRotationTable.contains(-181));
+        assertFalse(HueRotationTable.contains(181));
+    }
+
+    @Test
+    public void integerAnglesUseTheExactMatrix() {
+        float[] expected = new float[ColorMatrixComposer.MATRIX_SIZE];
+        float[] actual = new float[ColorMatrixComposer.MATRIX_SIZE];
+        for (int degrees = -180; degrees <= 180; degrees++) {
+            if (degrees == 0) continue;
+            float radians = (float) degrees / 180 * (float) Math.PI;
+            ColorMatrixComposer.setHue(expected, (float) Math.cos(radians),
+                    (float) Math.sin(radians));
+            ColorMatrixComposer.setHue(actual, degrees);
+            assertMatrixEquals("hue " + degrees, expected, actual);
+        }
+    }
+
+    @Test
+    public void fractionalAndOutOfRangeAnglesAreComputed() {
+        Random random = new Random(36);
+        float[] angles = new float[200];
+        for (int i = 0; i < angles.length; i++) {
+            angles[i] = random.nextFloat() * 720 - 360;
+        }
+        angles[0] = 0.5f;
+        angles[1] = -179.75f;
+        angles[2] = 181;
+        angles[3] = -540;
+        float[] expected = new float[ColorMatrixComposer.MATRIX_SIZE];
+        float[] actual = new float[ColorMatrixComposer.MATRIX_SIZE];
+        for (float degrees : angles) {
+            float radians = degrees / 180 * (float) Math.PI;
+            ColorMatrixComposer.setHue(expected, (float) Math.cos(radians),
+                    (float) Math.sin(radians));
+            ColorMatrixComposer.setHue(actual, degrees);
+            assertMatrixEquals("hue " + degrees, expected, actual);
+        }
+    }
+
+    private static void assertMatrixEquals(String message, float[] expected, float[] actual) {
+        for (int i = 0; i < ColorMatrixComposer.MATRIX_SIZE; i++) {
+            assertEquals(message + " coefficient " + i, expected[i], actual[i], 0);
+        }
+    }
+}
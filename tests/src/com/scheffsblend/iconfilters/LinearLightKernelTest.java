@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LinearLightKernelTest {
+    private static final int MATRICES = 200;
+    private static final int PIXELS = 1000;
+
+    @Test
+    public void identityKeepsEveryLevel() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setIdentity(m);
+        int[] src = new int[256 + PIXELS];
+        for (int i = 0; i < 256; i++) {
+            src[i] = i * 0x01010101;
+        }
+        System.arraycopy(TestPixels.randomPixels(new Random(19), PIXELS), 0, src, 256, PIXELS);
+        int[] dst = new int[src.length];
+        new LinearLightKernel(m).filter(src, 0, dst, 0, src.length);
+        assertArrayEquals(src, dst);
+    }
+
+    @Test
+    public void matchesExactTransferFunctionWithinOneLevel() {
+        Random random = new Random(20);
+        for (int n = 0; n < MATRICES; n++) {
+            float[] m = TestPixels.randomMatrix(random);
+            LinearLightKernel kernel = new LinearLightKernel(m);
+            for (int color : TestPixels.randomPixels(random, PIXELS)) {
+                int expected = reference(m, color);
+                int actual = kernel.filter(color);
+                assertTrue(String.format("matrix %d color %08x: expected %08x but was %08x", n,
+                        color, expected, actual),
+                        TestPixels.maxChannelDelta(expected, actual) <= 1);
+            }
+        }
+    }
+
+    @Test
+    public void leavesAlphaLinear() {
+        ColorMatrixComposer composer = new ColorMatrixComposer();
+        composer.brightness(150).alpha(60);
+        float[] m = composer.getArray();
+        LinearLightKernel kernel = new LinearLightKernel(m);
+        ColorMatrixKernel plain = new ColorMatrixKernel(m);
+        for (int color : TestPixels.randomPixels(new Random(22), PIXELS)) {
+            assertEquals(plain.filter(color) >>> 24, kernel.filter(color) >>> 24);
+        }
+    }
+
+    @Test
+    public void singleColorMatchesArrayPath() {
+        Random random = new Random(21);
+        LinearLightKernel kernel = new LinearLightKernel(TestPixels.randomMatrix(random));
+        int[] src = TestPixels.randomPixels(random, PIXELS);
+        int[] array = new int[PIXELS];
+        kernel.filter(src, 0, array, 0, PIXELS);
+        for (int i = 0; i < PIXELS; i++) {
+            assertEquals(array[i], kernel.filter(src[i]));
+        }
+    }
+
+    @Test
+    public void encodeClampsOutOfRangeValues() {
+        assertEquals(0, SrgbTransfer.encode(-1));
+        assertEquals(0, SrgbTransfer.encode(Float.NaN));
+        assertEquals(255, SrgbTransfer.encode(255));
+        assertEquals(255, SrgbTransfer.encode(Float.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void compilesLinearLightOnlyWhenAsked() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setSaturation(m, 50);
+        assertTrue(ColorMatrixKernel.compile(m, true) instanceof LinearLightKernel);
+        assertTrue(!(ColorMatrixKernel.compile(m, false) instanceof LinearLightKernel));
+
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_SATURATION, 50);
+        assertEquals(CompiledFilter.KERNEL_LINEAR_LIGHT,
+                CompiledFilter.compile(chain, true).getKernelType());
+    }
+
+    /**
+     * Decodes with the exact sRGB curve, applies matrix in double precision and encodes with
+     * the exact inverse curve.  Alpha is applied as in the plain kernel.
+     */
+    private static int reference(float[] matrix, int color) {
+        double[] in = {
+                toLinear((color >> 16) & 0xff), toLinear((color >> 8) & 0xff),
+                toLinear(color & 0xff), color >>> 24
+        };
+        int out = 0;
+        for (int row = 0; row < 4; row++) {
+            double v = matrix[row * 5 + 4];
+            for (int col = 0; col < 4; col++) {
+                v += (double) matrix[row * 5 + col] * in[col];
+            }
+            v = Math.max(0, Math.min(255, v));
+            int level = (int) Math.floor((row == 3 ? v : toSrgb(v)) + 0.5);
+            out |= level << TestPixels.SHIFTS[row];
+        }
+        return out;
+    }
+
+    private static double toLinear(int level) {
+        double c = level / 255.0;
+        return (c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4)) * 255;
+    }
+
+    private static double toSrgb(double linear) {
+        double l = linear / 255;
+        return (l <= 0.0031308 ? l * 12.92 : 1.055 * Math.pow(l, 1 / 2.4) - 0.055) * 255;
+    }
+}
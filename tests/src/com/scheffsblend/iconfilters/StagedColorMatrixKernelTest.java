@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StagedColorMatrixKernelTest {
+    private static final int CHAINS = 500;
+    private static final int PIXELS = 200;
+
+    @Test
+    public void matchesStageByStageReferenceWithinOneLevel() {
+        Random random = new Random(17);
+        for (int n = 0; n < CHAINS; n++) {
+            FilterChain chain = TestChains.randomChain(random, 1 + random.nextInt(6));
+            StagedColorMatrixKernel kernel = new StagedColorMatrixKernel(chain);
+            for (int color : TestPixels.randomPixels(random, PIXELS)) {
+                int expected = reference(chain, color, null);
+                assertTrue("chain " + n + " color " + Integer.toHexString(color),
+                        TestPixels.maxChannelDelta(expected, kernel.filter(color)) <= 1);
+            }
+        }
+    }
+
+    @Test
+    public void fusedPathIsOnlyChosenWhenNoClampCanTrigger() {
+        Random random = new Random(18);
+        int fused = 0;
+        for (int n = 0; n < CHAINS * 4; n++) {
+            FilterChain chain = TestChains.randomChain(random, 2 + random.nextInt(4));
+            ColorMatrixKernel kernel = StagedColorMatrixKernel.compile(chain);
+            if (StagedColorMatrixKernel.needsIntermediateClamping(chain)) {
+                assertTrue(kernel instanceof StagedColorMatrixKernel);
+                continue;
+            }
+            fused++;
+            assertFalse(kernel instanceof StagedColorMatrixKernel);
+            boolean[] clamped = new boolean[1];
+            for (int color : TestPixels.randomPixels(random, PIXELS)) {
+                int expected = reference(chain, color, clamped);
+                assertFalse("chain " + n + " clamped between stages", clamped[0]);
+                assertTrue("chain " + n + " color " + Integer.toHexString(color),
+                        TestPixels.maxChannelDelta(expected, kernel.filter(color)) <= 1);
+            }
+        }
+        // the random chains must exercise the fused path, not only the staged one
+        assertTrue("only " + fused + " chains were fused", fused > CHAINS / 10);
+    }
+
+    @Test
+    public void clampsBetweenStages() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_BRIGHTNESS, 200).add(FilterChain.TYPE_BRIGHTNESS, 50);
+        assertTrue(StagedColorMatrixKernel.needsIntermediateClamping(chain));
+        ColorMatrixKernel kernel = StagedColorMatrixKernel.compile(chain);
+        assertTrue(kernel instanceof StagedColorMatrixKernel);
+
+        // red 200 doubles to 400 and clamps to 255 before it is halved; the fused matrix is the
+        // identity and keeps 200
+        assertEquals(0xff806432, kernel.filter(0xffc86432));
+        ColorMatrixComposer composer = new ColorMatrixComposer();
+        chain.compose(composer);
+        assertEquals(0xffc86432, new ColorMatrixKernel(composer.getArray()).filter(0xffc86432));
+    }
+
+    @Test
+    public void provesSafeChainsNeedNoClamping() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_BRIGHTNESS, 80).add(FilterChain.TYPE_INVERT, 1)
+                .add(FilterChain.TYPE_ALPHA, 50);
+        assertFalse(StagedColorMatrixKernel.needsIntermediateClamping(chain));
+
+        FilterChain single = new FilterChain();
+        single.add(FilterChain.TYPE_BRIGHTNESS, 200);
+        assertFalse(StagedColorMatrixKernel.needsIntermediateClamping(single));
+        assertFalse(StagedColorMatrixKernel.needsIntermediateClamping(new FilterChain()));
+    }
+
+    @Test
+    public void compiledFiltersClampBetweenStages() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_BRIGHTNESS, 200).add(FilterChain.TYPE_BRIGHTNESS, 50);
+        CompiledFilter filter = CompiledFilter.compile(chain);
+        assertEquals(CompiledFilter.KERNEL_STAGED, filter.getKernelType());
+        int[] pixels = {0xffc86432};
+        filter.filter(pixels, 0, pixels, 0, 1);
+        assertEquals(0xff806432, pixels[0]);
+
+        // a chain that provably never clamps keeps the fused kernel
+        FilterChain safe = new FilterChain();
+        safe.add(FilterChain.TYPE_BRIGHTNESS, 80).add(FilterChain.TYPE_ALPHA, 50);
+        assertEquals(CompiledFilter.KERNEL_DIAGONAL, CompiledFilter.compile(safe).getKernelType());
+
+        assertEquals(CompiledFilter.KERNEL_LINEAR_LIGHT,
+                CompiledFilter.compile(chain, true).getKernelType());
+    }
+
+    /**
+     * Applies chain to color one stage at a time in double precision, clamping every channel to
+     * [0, 255] after each stage and rounding only the result.
+     *
+     * @param clamped if not null, element 0 is set when a clamp changed a value before the last
+     *                stage
+     */
+    private static int reference(FilterChain chain, int color, boolean[] clamped) {
+        double[] v = {(color >> 16) & 0xff, (color >> 8) & 0xff, color & 0xff, color >>> 24};
+        double[] next = new double[4];
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        if (clamped != null) clamped[0] = false;
+        for (int stage = 0; stage < chain.size(); stage++) {
+            chain.getStageMatrix(stage, m);
+            for (int row = 0; row < 4; row++) {
+                double sum = m[row * 5 + 4];
+                for (int col = 0; col < 4; col++) {
+                    sum += (double) m[row * 5 + col] * v[col];
+                }
+                // sums that should land exactly on 0 or 255 may be off by double rounding
+                if (clamped != null && stage < chain.size() - 1
+                        && (sum < -1e-3 || sum > 255 + 1e-3)) {
+                    clamped[0] = true;
+                }
+                next[row] = Math.max(0, Math.min(255, sum));
+            }
+            System.arraycopy(next, 0, v, 0, 4);
+        }
+        int out = 0;
+        for (int row = 0; row < 4; row++) {
+            out |= (int) Math.floor(v[row] + 0.5) << TestPixels.SHIFTS[row];
+        }
+        return out;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Random filter chains and chain assertions shared by the tests.
+ */
+final class TestChains {
+    static final int TYPE_COUNT = FilterChain.TYPE_TINT + 1;
+
+    private TestChains() {
+    }
+
+    /**
+     * Returns a chain of the given length with random stage types and values the designer can
+     * produce.
+     */
+    static FilterChain randomChain(Random random, int length) {
+        FilterChain chain = new FilterChain();
+        for (int i = 0; i < length; i++) {
+            int type = random.nextInt(TYPE_COUNT);
+            chain.add(type, randomValue(random, type));
+        }
+        return chain;
+    }
+
+    static double randomValue(Random random, int type) {
+        if (type == FilterChain.TYPE_TINT) return random.nextInt();
+        int min = FilterChain.getMinValue(type);
+        return min + random.nextInt(FilterChain.getMaxValue(type) - min + 1);
+    }
+
+    static void assertChainEquals(FilterChain expected, FilterChain actual) {
+        assertEquals("size", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("type of stage " + i, expected.getType(i), actual.getType(i));
+            assertEquals("value of stage " + i, expected.getValue(i), actual.getValue(i), 0);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters;
+
+import java.util.Random;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Random inputs and reference results shared by the kernel tests.
+ */
+final class TestPixels {
+    /**
+     * Shifts of the A, R, G and B channels, in matrix row order R, G, B, A.
+     */
+    static final int[] SHIFTS = {16, 8, 0, 24};
+
+    private TestPixels() {
+    }
+
+    /**
+     * Returns a matrix with coefficients in [-2, 2] and translations in [-255, 255], so many
+     * pixels clamp at both ends.
+     */
+    static float[] randomMatrix(Random random) {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        for (int i = 0; i < m.length; i++) {
+            m[i] = i % 5 == 4 ? random.nextFloat() * 510 - 255 : random.nextFloat() * 4 - 2;
+        }
+        return m;
+    }
+
+    /**
+     * Returns random pixels, including the darkest, brightest and fully transparent ones.
+     */
+    static int[] randomPixels(Random random, int count) {
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        pixels[0] = 0;
+        pixels[1] = 0xffffffff;
+        pixels[2] = 0xff000000;
+        pixels[3] = 0x00ffffff;
+        return pixels;
+    }
+
+    /**
+     * Applies matrix to color in double precision, clamping and rounding each channel to
+     * nearest.  This is the transform ColorMatrix documents, without float rounding.
+     */
+    static int reference(float[] matrix, int color) {
+        double[] in = {
+                (color >> 16) & 0xff, (color >> 8) & 0xff, color & 0xff, color >>> 24
+        };
+        int out = 0;
+        for (int row = 0; row < 4; row++) {
+            double v = matrix[row * 5 + 4];
+            for (int col = 0; col < 4; col++) {
+                v += (double) matrix[row * 5 + col] * in[col];
+            }
+            int channel = v >= 255 ? 255 : v > 0 ? (int) Math.floor(v + 0.5) : 0;
+            out |= channel << SHIFTS[row];
+        }
+        return out;
+    }
+
+    /**
+     * @return the largest difference between matching channels of a and b
+     */
+    static int maxChannelDelta(int a, int b) {
+        int max = 0;
+        for (int shift : SHIFTS) {
+            max = Math.max(max, Math.abs(((a >>> shift) & 0xff) - ((b >>> shift) & 0xff)));
+        }
+        return max;
+    }
+
+    /**
+     * Fails unless every channel of every actual pixel is within tolerance levels of expected.
+     */
+    static void assertPixelsWithin(String message, int[] expected, int[] actual,
+            int tolerance) {
+        for (int i = 0; i < expected.length; i++) {
+            if (maxChannelDelta(expected[i], actual[i]) > tolerance) {
+                fail(String.format("%s: pixel %d expected %08x but was %08x", message, i,
+                        expected[i], actual[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters.tools;
+
+import com.scheffsblend.iconfilters.ColorMatrixComposer;
+import com.scheffsblend.iconfilters.ColorMatrixKernel;
+import com.scheffsblend.iconfilters.CompiledFilter;
+import com.scheffsblend.iconfilters.FilterChain;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchFilterToolTest {
+    private static final int ICONS = 40;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test(timeout = 30000)
+    public void filtersEveryIcon() throws Exception {
+        Path input = writeIcons();
+        Path output = mFolder.newFolder("out").toPath();
+        ColorMatrixComposer composer = new ColorMatrixComposer();
+        composer.invertColors();
+        BatchFilterTool tool = new BatchFilterTool(new CompiledFilter(composer.getArray(), 1, 1,
+                null), input, output, 2);
+        tool.run();
+
+        assertEquals(ICONS, tool.getProcessedCount());
+        assertEquals(0, tool.getFailedCount());
+        BufferedImage icon = ImageIO.read(output.resolve("sub/icon7.png").toFile());
+        assertEquals(~0x00070707, icon.getRGB(0, 0));
+    }
+
+    @Test(timeout = 30000)
+    public void filtersLargeIconsInTiles() throws Exception {
+        int width = 600;
+        int height = 450;
+        assertTrue(width * height >= BatchFilterTool.TILED_MIN_PIXELS);
+        Random random = new Random(41);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | random.nextInt();
+        }
+        BufferedImage atlas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        atlas.setRGB(0, 0, width, height, pixels, 0, width);
+        File input = mFolder.newFolder("in");
+        ImageIO.write(atlas, "png", new File(input, "atlas.png"));
+
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_HUE, 30);
+        CompiledFilter filter = CompiledFilter.compile(chain);
+        Path output = mFolder.newFolder("out").toPath();
+        BatchFilterTool tool = new BatchFilterTool(filter, input.toPath(), output, 2);
+        tool.run();
+        assertEquals(1, tool.getProcessedCount());
+
+        int[] expected = new int[pixels.length];
+        filter.filter(pixels, 0, expected, 0, pixels.length);
+        BufferedImage filtered = ImageIO.read(output.resolve("atlas.png").toFile());
+        assertArrayEquals(expected, filtered.getRGB(0, 0, width, height, null, 0, width));
+    }
+
+    @Test(timeout = 30000)
+    public void workerErrorStopsThePipeline() throws Exception {
+        Path input = writeIcons();
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setIdentity(m);
+        ColorMatrixKernel broken = new ColorMatrixKernel(m) {
+            @Override
+            public void filter(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+                throw new Error("kernel died");
+            }
+        };
+        // one filter thread, so nothing drains the filter queue once it dies
+        BatchFilterTool tool = new BatchFilterTool(new CompiledFilter(m, 1, 1, broken), input,
+                mFolder.newFolder("out").toPath(), 1);
+        try {
+            tool.run();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("filter-0 failed"));
+            assertEquals("kernel died", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void runsGeneralMatricesInFixedPoint() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_HUE, 30);
+        CompiledFilter filter = CompiledFilter.compile(chain);
+        assertEquals(CompiledFilter.KERNEL_GENERAL, filter.getKernelType());
+        CompiledFilter fixed = BatchFilterTool.preferFixedPoint(filter);
+        assertEquals(CompiledFilter.KERNEL_FIXED_POINT, fixed.getKernelType());
+        assertEquals(filter.getFingerprint(), fixed.getFingerprint());
+
+        Random random = new Random(37);
+        int[] pixels = new int[4096];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        int[] expected = new int[pixels.length];
+        int[] actual = new int[pixels.length];
+        filter.filter(pixels, 0, expected, 0, pixels.length);
+        fixed.filter(pixels, 0, actual, 0, pixels.length);
+        for (int i = 0; i < pixels.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int delta = ((expected[i] >>> shift) & 0xff) - ((actual[i] >>> shift) & 0xff);
+                assertTrue(Integer.toHexString(pixels[i]), Math.abs(delta) <= 1);
+            }
+        }
+    }
+
+    @Test
+    public void keepsOtherKernels() {
+        FilterChain diagonal = new FilterChain();
+        diagonal.add(FilterChain.TYPE_BRIGHTNESS, 80);
+        CompiledFilter filter = CompiledFilter.compile(diagonal);
+        assertSame(filter, BatchFilterTool.preferFixedPoint(filter));
+
+        FilterChain staged = new FilterChain();
+        staged.add(FilterChain.TYPE_BRIGHTNESS, 200).add(FilterChain.TYPE_HUE, 30);
+        filter = CompiledFilter.compile(staged);
+        assertEquals(CompiledFilter.KERNEL_STAGED, filter.getKernelType());
+        assertSame(filter, BatchFilterTool.preferFixedPoint(filter));
+
+        FilterChain general = new FilterChain();
+        general.add(FilterChain.TYPE_HUE, 30);
+        filter = CompiledFilter.compile(general, true);
+        assertSame(filter, BatchFilterTool.preferFixedPoint(filter));
+
+        // too large for a 32-bit accumulator with 8 fractional bits
+        float[] huge = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setHue(huge, 30);
+        huge[0] = 1e6f;
+        filter = new CompiledFilter(huge, 1, 1, null);
+        assertSame(filter, BatchFilterTool.preferFixedPoint(filter));
+    }
+
+    @Test
+    public void parsesThreadCounts() {
+        assertEquals(4, BatchFilterTool.parseThreadCount("4"));
+        assertEquals(0, BatchFilterTool.parseThreadCount("-2"));
+        assertEquals(0, BatchFilterTool.parseThreadCount("four"));
+        assertEquals(0, BatchFilterTool.parseThreadCount(""));
+    }
+
+    private Path writeIcons() throws IOException {
+        File input = mFolder.newFolder("in");
+        File sub = new File(input, "sub");
+        assertTrue(sub.mkdir());
+        for (int i = 0; i < ICONS; i++) {
+            BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB);
+            image.setRGB(0, 0, 0xff000000 | i * 0x010101);
+            ImageIO.write(image, "png", new File(i % 2 == 0 ? input : sub, "icon" + i + ".png"));
+        }
+        return input.toPath();
+    }
+}
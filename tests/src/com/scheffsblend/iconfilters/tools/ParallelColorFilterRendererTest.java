@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters.tools;
+
+import com.scheffsblend.iconfilters.ColorMatrixComposer;
+import com.scheffsblend.iconfilters.ColorMatrixKernel;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+public class ParallelColorFilterRendererTest {
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+    private static final int[][] SIZES = {
+            {1, 1}, {1, 97}, {97, 1}, {3, 5}, {17, 31}, {64, 64}, {129, 257}, {511, 3}
+    };
+    private static final int[] TILE_ROWS = {0, 1, 2, 3, 7, 16, 1000};
+
+    @AfterClass
+    public static void shutdownPool() {
+        POOL.shutdown();
+    }
+
+    @Test
+    public void tiledOutputMatchesSequential() {
+        Random random = new Random(38);
+        ColorMatrixKernel kernel = hueKernel();
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            int[] src = randomPixels(random, width * height);
+            int[] expected = new int[src.length];
+            kernel.filter(src, 0, expected, 0, src.length);
+            for (int tileRows : TILE_ROWS) {
+                String message = width + "x" + height + ", " + tileRows + " rows per tile";
+                ParallelColorFilterRenderer renderer =
+                        new ParallelColorFilterRenderer(POOL, tileRows);
+                int[] dst = new int[src.length];
+                renderer.render(kernel, src, dst, width, height);
+                assertArrayEquals(message, expected, dst);
+
+                // in place
+                int[] pixels = src.clone();
+                renderer.render(kernel, pixels, pixels, width, height);
+                assertArrayEquals(message + ", in place", expected, pixels);
+            }
+        }
+    }
+
+    @Test
+    public void stridedRegionsLeavePaddingAlone() {
+        Random random = new Random(39);
+        ColorMatrixKernel kernel = hueKernel();
+        int width = 13;
+        int height = 29;
+        int stride = 20;
+        int offset = 5;
+        int[] src = randomPixels(random, offset + stride * height);
+        int[] expected = new int[src.length];
+        Arrays.fill(expected, 0x55555555);
+        for (int row = 0; row < height; row++) {
+            kernel.filter(src, offset + row * stride, expected, offset + row * stride, width);
+        }
+        for (int tileRows : TILE_ROWS) {
+            int[] dst = new int[src.length];
+            Arrays.fill(dst, 0x55555555);
+            new ParallelColorFilterRenderer(POOL, tileRows).render(kernel, src, offset, dst,
+                    offset, width, height, stride);
+            assertArrayEquals(tileRows + " rows per tile", expected, dst);
+        }
+    }
+
+    @Test
+    public void ownPoolMatchesSequential() {
+        Random random = new Random(40);
+        ColorMatrixKernel kernel = hueKernel();
+        int width = 333;
+        int height = 211;
+        int[] src = randomPixels(random, width * height);
+        int[] expected = new int[src.length];
+        kernel.filter(src, 0, expected, 0, src.length);
+        ParallelColorFilterRenderer renderer = new ParallelColorFilterRenderer(3);
+        try {
+            int[] dst = new int[src.length];
+            renderer.render(kernel, src, dst, width, height);
+            assertArrayEquals(expected, dst);
+        } finally {
+            renderer.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectsInvalidDimensions() {
+        ParallelColorFilterRenderer renderer = new ParallelColorFilterRenderer(POOL, 0);
+        int[] pixels = new int[100];
+        assertRejected(renderer, pixels, -1, 1, 10);
+        assertRejected(renderer, pixels, 1, -1, 10);
+        assertRejected(renderer, pixels, 11, 1, 10);
+        // empty regions are a no-op
+        renderer.render(hueKernel(), pixels, 0, pixels, 0, 0, 5, 10);
+        renderer.render(hueKernel(), pixels, 0, pixels, 0, 5, 0, 10);
+    }
+
+    private static void assertRejected(ParallelColorFilterRenderer renderer, int[] pixels,
+            int width, int height, int stride) {
+        try {
+            renderer.render(hueKernel(), pixels, 0, pixels, 0, width, height, stride);
+            fail(width + "x" + height + ", stride " + stride);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static ColorMatrixKernel hueKernel() {
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setHue(m, 30);
+        return new ColorMatrixKernel(m);
+    }
+
+    private static int[] randomPixels(Random random, int count) {
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+}
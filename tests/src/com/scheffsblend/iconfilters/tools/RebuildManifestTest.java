@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters.tools;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class RebuildManifestTest {
+    private static final int RECORDS = 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void savedRecordsLoadBack() throws IOException {
+        Random random = new Random(25);
+        long[][] records = new long[RECORDS][4];
+        RebuildManifest manifest = new RebuildManifest();
+        for (long[] r : records) {
+            // few distinct source and filter keys, so the later key fields decide the order
+            r[0] = random.nextInt(8) - 4;
+            r[1] = random.nextLong();
+            r[2] = random.nextLong();
+            r[3] = random.nextInt(100000);
+            manifest.put(r[0], r[1], r[2], r[3]);
+        }
+        Path file = mFolder.getRoot().toPath().resolve("manifest");
+        manifest.save(file);
+        assertFalse(Files.exists(file.resolveSibling("manifest.tmp")));
+
+        RebuildManifest loaded = RebuildManifest.load(file);
+        assertEquals(RECORDS, loaded.size());
+        for (long[] r : records) {
+            assertEquals(r[3], loaded.lookup(r[0], r[1], r[2]));
+            assertEquals(-1, loaded.lookup(r[0], r[1], r[2] + 1));
+            assertEquals(-1, loaded.lookup(r[0], r[1] ^ 1, r[2]));
+        }
+        assertEquals(-1, loaded.lookup(100, 0, 0));
+    }
+
+    @Test
+    public void saveKeepsOnlyPutRecordsOnce() throws IOException {
+        Path file = mFolder.getRoot().toPath().resolve("manifest");
+        RebuildManifest first = new RebuildManifest();
+        first.put(1, 2, 3, 10);
+        first.put(4, 5, 6, 20);
+        first.save(file);
+
+        RebuildManifest second = RebuildManifest.load(file);
+        second.put(1, 2, 3, 10);
+        second.put(1, 2, 3, 10);
+        second.save(file);
+
+        RebuildManifest third = RebuildManifest.load(file);
+        assertEquals(1, third.size());
+        assertEquals(10, third.lookup(1, 2, 3));
+        assertEquals(-1, third.lookup(4, 5, 6));
+    }
+
+    @Test
+    public void missingFileLoadsEmpty() throws IOException {
+        RebuildManifest manifest = RebuildManifest.load(mFolder.getRoot().toPath()
+                .resolve("missing"));
+        assertEquals(0, manifest.size());
+        assertEquals(-1, manifest.lookup(0, 0, 0));
+    }
+
+    @Test
+    public void rejectsCorruptFiles() throws IOException {
+        Path file = mFolder.getRoot().toPath().resolve("manifest");
+        RebuildManifest manifest = new RebuildManifest();
+        manifest.put(1, 2, 3, 4);
+        manifest.save(file);
+        byte[] valid = Files.readAllBytes(file);
+
+        assertRejected(file, Arrays.copyOf(valid, 10));
+        assertRejected(file, Arrays.copyOf(valid, valid.length - 8));
+        assertRejected(file, Arrays.copyOf(valid, valid.length + 32));
+        assertRejected(file, withInt(valid, 0, 0x12345678));
+        assertRejected(file, withInt(valid, 4, 2));
+        assertRejected(file, withInt(valid, 8, 2));
+        assertRejected(file, "not a manifest at all, just text".getBytes("US-ASCII"));
+    }
+
+    @Test
+    public void hashesMatchFnv1a() throws IOException {
+        assertEquals(0xcbf29ce484222325L, RebuildManifest.hash(new byte[0], 0, 0));
+        byte[] a = "xa".getBytes("US-ASCII");
+        assertEquals(0xaf63dc4c8601ec8cL, RebuildManifest.hash(a, 1, 1));
+        String path = "res/drawable/\u00e9t\u00e9.png";
+        byte[] utf16 = path.getBytes("UTF-16LE");
+        assertEquals(RebuildManifest.hash(utf16, 0, utf16.length), RebuildManifest.hash(path));
+    }
+
+    private static byte[] withInt(byte[] data, int offset, int value) {
+        byte[] copy = data.clone();
+        ByteBuffer.wrap(copy).putInt(offset, value);
+        return copy;
+    }
+
+    private static void assertRejected(Path file, byte[] content) throws IOException {
+        Files.write(file, content);
+        try {
+            RebuildManifest.load(file);
+            fail(content.length + " bytes loaded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
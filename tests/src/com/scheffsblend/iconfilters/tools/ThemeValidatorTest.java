@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters.tools;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ThemeValidatorTest {
+    private static final String[] CHAINS = {
+            "<filter name=\"hue\">30</filter>",
+            "<filter name=\"hue\">30</filter><filter name=\"invert\">true</filter>",
+            "<filter name=\"brightness\">80</filter><filter name=\"contrast\">20</filter>"
+    };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void countsDistinctChainsAcrossThreads() throws Exception {
+        List<Path> themes = new ArrayList<Path>();
+        for (int i = 0; i < 60; i++) {
+            themes.add(writeTheme("theme" + i, CHAINS[i % CHAINS.length]));
+        }
+        ThemeValidator validator = new ThemeValidator("appfilter.xml", 4);
+        assertEquals(0, validator.validate(themes).size());
+        assertEquals(60, validator.getFileCount());
+        assertEquals(CHAINS.length, validator.getDistinctChainCount());
+
+        // validating again sees the same chains
+        validator.validate(themes);
+        assertEquals(CHAINS.length, validator.getDistinctChainCount());
+    }
+
+    @Test
+    public void reportsErrorsInThemeOrder() throws Exception {
+        List<Path> themes = new ArrayList<Path>();
+        themes.add(writeTheme("a", "<filter name=\"hue\">30</filter>\n"
+                + "<filter name=\"saturation\">500</filter>"));
+        themes.add(writeTheme("b", "<filter name=\"sparkle\">1</filter>"));
+        themes.add(writeTheme("c", CHAINS[0]));
+        ThemeValidator validator = new ThemeValidator("appfilter.xml", 2);
+        List<String> errors = validator.validate(themes);
+
+        assertEquals(errors.toString(), 2, errors.size());
+        String a = themes.get(0).resolve("appfilter.xml").toString();
+        assertEquals(a + ":3: saturation value 500 is outside 0..200", errors.get(0));
+        assertTrue(errors.get(1), errors.get(1).startsWith(
+                themes.get(1).resolve("appfilter.xml").toString() + ":2: "));
+        // the theme with an unknown filter still composes the rest of its chain
+        assertEquals(3, validator.getDistinctChainCount());
+    }
+
+    private Path writeTheme(String name, String filters) throws IOException {
+        Path theme = mFolder.newFolder(name).toPath();
+        String xml = "<resources>\n" + filters + "\n</resources>\n";
+        Files.write(theme.resolve("appfilter.xml"), xml.getBytes(Charset.forName("UTF-8")));
+        return theme;
+    }
+}
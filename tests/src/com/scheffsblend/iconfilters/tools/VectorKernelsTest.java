@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters.tools;
+
+import com.scheffsblend.iconfilters.ColorMatrixComposer;
+import com.scheffsblend.iconfilters.ColorMatrixKernel;
+import com.scheffsblend.iconfilters.CompiledFilter;
+import com.scheffsblend.iconfilters.FilterChain;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeNotNull;
+
+/**
+ * Checks the Vector API kernel against the scalar kernel.  The tests are skipped unless the
+ * tools.vector package was compiled and jdk.incubator.vector is available, see the README.
+ */
+public class VectorKernelsTest {
+    private static final int MATRICES = 300;
+    private static final int PIXELS = 1000;
+
+    @Test
+    public void matchesScalarKernelExactly() {
+        Random random = new Random(42);
+        for (int n = 0; n < MATRICES; n++) {
+            float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+            for (int i = 0; i < m.length; i++) {
+                m[i] = i % 5 == 4 ? random.nextFloat() * 510 - 255 : random.nextFloat() * 4 - 2;
+            }
+            assertSameOutput("matrix " + n, m, randomPixels(random, PIXELS));
+        }
+    }
+
+    @Test
+    public void roundsHalvesAndClampsLikeTheScalarKernel() {
+        Random random = new Random(43);
+        int[] pixels = randomPixels(random, PIXELS);
+        // brightness 50 puts every odd level exactly on a half
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setBrightness(m, 50);
+        assertSameOutput("halves", m, pixels);
+        // pushes channels to 254.5 through 255.5 and beyond
+        m[4] = m[9] = m[14] = 127.5f;
+        assertSameOutput("top", m, pixels);
+        m[4] = m[9] = m[14] = -127.5f;
+        assertSameOutput("bottom", m, pixels);
+        float[] extremes = {Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY,
+                Float.MAX_VALUE, -Float.MAX_VALUE, Float.MIN_VALUE, -0f};
+        for (float value : extremes) {
+            ColorMatrixComposer.setHue(m, 30);
+            m[0] = m[9] = m[18] = value;
+            m[14] = -value;
+            assertSameOutput("extreme " + value, m, pixels);
+        }
+    }
+
+    @Test
+    public void handlesOffsetsTailsAndInPlace() {
+        Random random = new Random(44);
+        float[] m = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setHue(m, -75);
+        ColorMatrixKernel vector = VectorKernels.create(m);
+        assumeNotNull(vector);
+        ColorMatrixKernel scalar = new ColorMatrixKernel(m);
+        int[] src = randomPixels(random, 200);
+        for (int count = 0; count < 70; count++) {
+            int offset = random.nextInt(src.length - count);
+            int[] expected = new int[src.length];
+            int[] actual = new int[src.length];
+            scalar.filter(src, offset, expected, src.length - count, count);
+            vector.filter(src, offset, actual, src.length - count, count);
+            assertArrayEquals(count + " pixels", expected, actual);
+
+            int[] inPlace = src.clone();
+            vector.filter(inPlace, offset, inPlace, offset, count);
+            expected = src.clone();
+            scalar.filter(expected, offset, expected, offset, count);
+            assertArrayEquals(count + " pixels in place", expected, inPlace);
+        }
+    }
+
+    @Test
+    public void batchToolPrefersTheVectorKernel() {
+        FilterChain chain = new FilterChain();
+        chain.add(FilterChain.TYPE_HUE, 30);
+        CompiledFilter filter = CompiledFilter.compile(chain);
+        CompiledFilter vector = BatchFilterTool.preferVector(filter);
+        float[] m = filter.getMatrix(new float[ColorMatrixComposer.MATRIX_SIZE]);
+        if (VectorKernels.create(m) == null) {
+            assertSame(filter, vector);
+            return;
+        }
+        assertNotSame(filter.getKernel(), vector.getKernel());
+        assertEquals(CompiledFilter.KERNEL_GENERAL, vector.getKernelType());
+        assertEquals(filter.getFingerprint(), vector.getFingerprint());
+        // the exact vector kernel is kept over fixed point
+        assertSame(vector, BatchFilterTool.preferFixedPoint(vector));
+
+        FilterChain diagonal = new FilterChain();
+        diagonal.add(FilterChain.TYPE_BRIGHTNESS, 80);
+        filter = CompiledFilter.compile(diagonal);
+        assertSame(filter, BatchFilterTool.preferVector(filter));
+    }
+
+    private static void assertSameOutput(String message, float[] m, int[] pixels) {
+        ColorMatrixKernel vector = VectorKernels.create(m);
+        assumeNotNull(vector);
+        int[] expected = new int[pixels.length];
+        int[] actual = new int[pixels.length];
+        new ColorMatrixKernel(m).filter(pixels, 0, expected, 0, pixels.length);
+        vector.filter(pixels, 0, actual, 0, pixels.length);
+        assertArrayEquals(message, expected, actual);
+    }
+
+    private static int[] randomPixels(Random random, int count) {
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        pixels[0] = 0;
+        pixels[1] = 0xffffffff;
+        return pixels;
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters.tools;
+
+import com.scheffsblend.iconfilters.ColorMatrixComposer;
+import com.scheffsblend.iconfilters.ColorMatrixKernel;
+import com.scheffsblend.iconfilters.CompiledFilter;
+import com.scheffsblend.iconfilters.FilterChain;
+import com.scheffsblend.iconfilters.FilterParseException;
+import com.scheffsblend.iconfilters.FilterXmlParser;
+import com.scheffsblend.iconfilters.FixedPointColorMatrixKernel;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Command line tool that applies a filter chain, in the format shown by the designer's
+ * "Show XML", to every PNG under a directory and writes the filtered icons to a mirrored tree.
+ * Runs on a plain JVM using the same matrix math as the app.  Filters come from
+ * {@link CompiledFilter#compile(FilterChain, boolean)}, so chains that can push a channel out of
+ * range before a later stage are rendered one stage at a time with clamping in between.  A
+ * matrix that needs the full multiply-add kernel runs on the Vector API kernel when
+ * {@link VectorKernels} can load it, and otherwise in fixed point when
+ * {@link FixedPointColorMatrixKernel#getMaxError()} keeps it within a level of the float result.
+ *
+ * Work flows through a bounded decode, filter, encode pipeline: each stage has its own worker
+ * threads and hands icons to the next through a bounded queue, so all cores stay busy while
+ * only a few decoded icons are held in memory at once.  A worker that dies on an unexpected
+ * error stops the whole pipeline, and {@link #run()} reports it instead of waiting forever on
+ * a stage that no longer drains its queue.  Images of at least {@link #TILED_MIN_PIXELS}, such
+ * as icon atlases, are filtered in tiles on a {@link ParallelColorFilterRenderer} so one large
+ * image does not hold up a single filter thread.
+ *
+ * With --manifest, a {@link RebuildManifest} records what each output was built from and icons
+ * whose source bytes, filter and output are unchanged since the last run are skipped.  Sources
+ * are hashed on the decode threads from the same bytes that are then decoded.
+ *
+ * Usage: BatchFilterTool [--threads N] [--linear] [--manifest file] filter.xml input-dir
+ * output-dir
+ */
+public class BatchFilterTool {
+    private static final String PNG_SUFFIX = ".png";
+    private static final String FORMAT_PNG = "png";
+    private static final int STAGE_DECODE = 0;
+    private static final int STAGE_FILTER = 1;
+    private static final int STAGE_ENCODE = 2;
+    private static final String[] STAGE_NAMES = {"decode", "filter", "encode"};
+    private static final long POLL_MILLIS = 100;
+    /**
+     * Smallest image, in pixels, that is split into tiles across threads rather than filtered
+     * on its filter thread.
+     */
+    static final int TILED_MIN_PIXELS = 512 * 512;
+    /**
+     * Largest fixed point error bound, in channel levels, for which the fixed point kernel
+     * replaces the float one.  Any bound under one level keeps every channel within one level
+     * of the float result.
+     */
+    static final float MAX_FIXED_POINT_ERROR = 0.5f;
+
+    private final CompiledFilter mFilter;
+    private final Path mInputDir;
+    private final Path mOutputDir;
+    private final int mThreads;
+    private final BlockingQueue<IconJob> mDecodeQueue;
+    private final BlockingQueue<IconJob> mFilterQueue;
+    private final BlockingQueue<IconJob> mEncodeQueue;
+    private final AtomicInteger mProcessed = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+    private final AtomicInteger mSkipped = new AtomicInteger();
+    private final AtomicReference<IOException> mWorkerFailure =
+            new AtomicReference<IOException>();
+    private final long mFilterKey;
+    private RebuildManifest mManifest;
+    private ParallelColorFilterRenderer mRenderer;
+
+    /**
+     * A unit of work passed between stages.  A job without a source marks the end of input.
+     */
+    static class IconJob {
+        static final IconJob END = new IconJob(null, null, 0);
+
+        final Path source;
+        final Path target;
+        final long pathHash;
+        long sourceHash;
+        int width;
+        int height;
+        int[] pixels;
+
+        IconJob(Path source, Path target, long pathHash) {
+            this.source = source;
+            this.target = target;
+            this.pathHash = pathHash;
+        }
+    }
+
+    public BatchFilterTool(CompiledFilter filter, Path inputDir, Path outputDir, int threads) {
+        mFilter = filter;
+        mInputDir = inputDir;
+        mOutputDir = outputDir;
+        mThreads = threads;
+        // the kernel type separates linear light output from plain output of the same chain
+        mFilterKey = filter.getFingerprint() * 31 + filter.getKernelType();
+        mDecodeQueue = new ArrayBlockingQueue<IconJob>(threads * 2);
+        mFilterQueue = new ArrayBlockingQueue<IconJob>(threads * 2);
+        mEncodeQueue = new ArrayBlockingQueue<IconJob>(threads * 2);
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean linearLight = false;
+        Path manifestFile = null;
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = parseThreadCount(args[++i]);
+            } else if ("--linear".equals(args[i])) {
+                linearLight = true;
+            } else if ("--manifest".equals(args[i]) && i + 1 < args.length) {
+                manifestFile = Paths.get(args[++i]);
+            } else {
+                paths.add(args[i]);
+            }
+        }
+        if (paths.size() != 3 || threads < 1) {
+            System.err.println("Usage: BatchFilterTool [--threads N] [--linear] "
+                    + "[--manifest file] filter.xml input-dir output-dir");
+            System.exit(2);
+        }
+
+        try {
+            FilterChain chain = readFilterChain(Paths.get(paths.get(0)));
+            BatchFilterTool tool = new BatchFilterTool(
+                    preferFixedPoint(preferVector(CompiledFilter.compile(chain, linearLight))),
+                    Paths.get(paths.get(1)), Paths.get(paths.get(2)), threads);
+            long start = System.nanoTime();
+            if (manifestFile != null) {
+                try {
+                    tool.setManifest(RebuildManifest.load(manifestFile));
+                } catch (IOException e) {
+                    System.err.println(e.getMessage() + ", rebuilding all icons");
+                    tool.setManifest(new RebuildManifest());
+                }
+            }
+            tool.run();
+            if (manifestFile != null) tool.getManifest().save(manifestFile);
+            System.out.println(String.format(Locale.US,
+                    "Filtered %d icons in %d ms, %d unchanged, %d failed",
+                    tool.getProcessedCount(), (System.nanoTime() - start) / 1000000,
+                    tool.getSkippedCount(), tool.getFailedCount()));
+            System.exit(tool.getFailedCount() > 0 ? 1 : 0);
+        } catch (FilterParseException e) {
+            System.err.println(paths.get(0) + ": " + e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns filter with its float multiply-add kernel replaced by the Vector API kernel, which
+     * gives identical output, if {@link VectorKernels} can load it, and filter itself otherwise.
+     */
+    static CompiledFilter preferVector(CompiledFilter filter) {
+        if (filter.getKernel().getClass() != ColorMatrixKernel.class) return filter;
+        float[] matrix = filter.getMatrix(new float[ColorMatrixComposer.MATRIX_SIZE]);
+        ColorMatrixKernel kernel = VectorKernels.create(matrix);
+        if (kernel == null) return filter;
+        return new CompiledFilter(matrix, filter.getFingerprint(), filter.getStageCount(),
+                kernel);
+    }
+
+    /**
+     * Returns filter with its float multiply-add kernel replaced by a
+     * {@link FixedPointColorMatrixKernel} when the fixed point error bound is at most
+     * {@link #MAX_FIXED_POINT_ERROR}, and filter itself otherwise.
+     */
+    static CompiledFilter preferFixedPoint(CompiledFilter filter) {
+        if (filter.getKernel().getClass() != ColorMatrixKernel.class) return filter;
+        float[] matrix = filter.getMatrix(new float[ColorMatrixComposer.MATRIX_SIZE]);
+        FixedPointColorMatrixKernel kernel;
+        try {
+            kernel = new FixedPointColorMatrixKernel(matrix);
+        } catch (IllegalArgumentException e) {
+            return filter;
+        }
+        if (!(kernel.getMaxError() <= MAX_FIXED_POINT_ERROR)) return filter;
+        return new CompiledFilter(matrix, filter.getFingerprint(), filter.getStageCount(),
+                kernel);
+    }
+
+    /**
+     * Parses the value of a --threads option.
+     *
+     * @return the thread count, or 0 if value is not a positive integer
+     */
+    static int parseThreadCount(String value) {
+        try {
+            return Math.max(0, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static FilterChain readFilterChain(Path file) throws IOException, FilterParseException {
+        Reader reader = Files.newBufferedReader(file, Charset.forName("UTF-8"));
+        try {
+            return new FilterXmlParser().parse(reader, new FilterChain());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public int getProcessedCount() {
+        return mProcessed.get();
+    }
+
+    public int getFailedCount() {
+        return mFailed.get();
+    }
+
+    /**
+     * @return number of icons skipped because the manifest showed their output is current
+     */
+    public int getSkippedCount() {
+        return mSkipped.get();
+    }
+
+    /**
+     * Sets the manifest used to skip unchanged icons and to record new outputs.  Must be
+     * called before {@link #run()}; the caller saves the manifest afterwards.
+     */
+    public void setManifest(RebuildManifest manifest) {
+        mManifest = manifest;
+    }
+
+    public RebuildManifest getManifest() {
+        return mManifest;
+    }
+
+    /**
+     * Filters every PNG under the input directory, returning once all of them are written.
+     *
+     * @throws IOException if the input cannot be walked or a worker thread died; icons already
+     *                     queued are then dropped
+     */
+    public void run() throws IOException, InterruptedException {
+        mRenderer = new ParallelColorFilterRenderer(mThreads);
+        List<Thread> decoders = startStage(STAGE_DECODE, mDecodeQueue, mFilterQueue);
+        List<Thread> filters = startStage(STAGE_FILTER, mFilterQueue, mEncodeQueue);
+        List<Thread> encoders = startStage(STAGE_ENCODE, mEncodeQueue, null);
+
+        try {
+            Files.walkFileTree(mInputDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                        throws IOException {
+                    if (attrs.isRegularFile() && file.getFileName().toString()
+                            .toLowerCase(Locale.US).endsWith(PNG_SUFFIX)) {
+                        if (!submit(file)) return FileVisitResult.TERMINATE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            // shut the stages down in order so every queued icon is still written
+            finishStage(mDecodeQueue, decoders);
+            finishStage(mFilterQueue, filters);
+            finishStage(mEncodeQueue, encoders);
+            mRenderer.shutdown();
+        }
+        IOException failure = mWorkerFailure.get();
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Queues source for decoding.
+     *
+     * @return false if the pipeline stopped because a worker failed
+     */
+    private boolean submit(Path source) throws IOException {
+        Path relative = mInputDir.relativize(source);
+        Path target = mOutputDir.resolve(relative.toString());
+        // hash the relative path with / separators so manifests move between machines
+        long pathHash = RebuildManifest.hash(relative.toString().replace('\\', '/'));
+        try {
+            return put(mDecodeQueue, new IconJob(source, target, pathHash));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queueing " + source);
+        }
+    }
+
+    private List<Thread> startStage(final int stage, final BlockingQueue<IconJob> in,
+            final BlockingQueue<IconJob> out) {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < mThreads; i++) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        IconJob job;
+                        while ((job = take(in)) != IconJob.END) {
+                            if (process(stage, job) && out != null && !put(out, job)) break;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Throwable t) {
+                        fail(t);
+                    }
+                }
+            }, STAGE_NAMES[stage] + "-" + i);
+            t.start();
+            threads.add(t);
+        }
+        return threads;
+    }
+
+    private void finishStage(BlockingQueue<IconJob> in, List<Thread> threads)
+            throws InterruptedException {
+        for (int i = 0; i < threads.size(); i++) {
+            if (!put(in, IconJob.END)) break;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    /**
+     * Puts job on queue, waiting for room.
+     *
+     * @return false if a worker failed before there was room
+     */
+    private boolean put(BlockingQueue<IconJob> queue, IconJob job) throws InterruptedException {
+        while (!queue.offer(job, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (mWorkerFailure.get() != null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes the next job from queue, waiting for one to arrive.
+     *
+     * @return the next job, or {@link IconJob#END} once a worker has failed
+     */
+    private IconJob take(BlockingQueue<IconJob> queue) throws InterruptedException {
+        while (mWorkerFailure.get() == null) {
+            IconJob job = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (job != null) return job;
+        }
+        return IconJob.END;
+    }
+
+    /**
+     * Records the error that killed the current worker and stops the pipeline.  Every blocked
+     * put and take sees the failure within {@link #POLL_MILLIS}.
+     */
+    private void fail(Throwable t) {
+        IOException failure = new IOException(Thread.currentThread().getName() + " failed: " + t,
+                t);
+        if (mWorkerFailure.compareAndSet(null, failure)) {
+            // drop queued icons so their pixels can be collected
+            mDecodeQueue.clear();
+            mFilterQueue.clear();
+            mEncodeQueue.clear();
+        }
+    }
+
+    /**
+     * Runs one stage on job.
+     *
+     * @return true if the job should continue to the next stage
+     */
+    private boolean process(int stage, IconJob job) {
+        try {
+            switch (stage) {
+                case STAGE_DECODE:
+                    return decode(job);
+                case STAGE_FILTER:
+                    if (job.pixels.length >= TILED_MIN_PIXELS) {
+                        mRenderer.render(mFilter.getKernel(), job.pixels, job.pixels, job.width,
+                                job.height);
+                    } else {
+                        mFilter.filter(job.pixels, 0, job.pixels, 0, job.pixels.length);
+                    }
+                    break;
+                case STAGE_ENCODE:
+                    long length = encode(job);
+                    mProcessed.incrementAndGet();
+                    if (mManifest != null) {
+                        mManifest.put(job.sourceHash, mFilterKey, job.pathHash, length);
+                    }
+                    break;
+            }
+            return true;
+        } catch (IOException e) {
+            mFailed.incrementAndGet();
+            System.err.println(job.source + ": " + e.getMessage());
+            return false;
+        } catch (RuntimeException e) {
+            mFailed.incrementAndGet();
+            System.err.println(job.source + ": " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads and decodes the source of job.
+     *
+     * @return false if the manifest shows the output is already current
+     */
+    private boolean decode(IconJob job) throws IOException {
+        byte[] data = Files.readAllBytes(job.source);
+        job.sourceHash = RebuildManifest.hash(data, 0, data.length);
+        if (mManifest != null) {
+            long length = mManifest.lookup(job.sourceHash, mFilterKey, job.pathHash);
+            if (length >= 0 && Files.isRegularFile(job.target)
+                    && Files.size(job.target) == length) {
+                mManifest.put(job.sourceHash, mFilterKey, job.pathHash, length);
+                mSkipped.incrementAndGet();
+                return false;
+            }
+        }
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        if (image == null) throw new IOException("not a readable image");
+        job.width = image.getWidth();
+        job.height = image.getHeight();
+        // getRGB returns non-premultiplied ARGB, the layout the kernels expect
+        job.pixels = image.getRGB(0, 0, job.width, job.height, null, 0, job.width);
+        return true;
+    }
+
+    /**
+     * Encodes job to its target.
+     *
+     * @return the length of the written file
+     */
+    private static long encode(IconJob job) throws IOException {
+        BufferedImage image = new BufferedImage(job.width, job.height,
+                BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, job.width, job.height, job.pixels, 0, job.width);
+        Path parent = job.target.getParent();
+        if (parent != null) Files.createDirectories(parent);
+        if (!ImageIO.write(image, FORMAT_PNG, job.target.toFile())) {
+            throw new IOException("no PNG encoder available");
+        }
+        job.pixels = null;
+        return Files.size(job.target);
+    }
+}
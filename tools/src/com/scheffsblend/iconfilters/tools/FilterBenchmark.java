@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters.tools;
+
+import com.scheffsblend.iconfilters.ColorMatrixComposer;
+import com.scheffsblend.iconfilters.ColorMatrixKernel;
+import com.scheffsblend.iconfilters.FixedPointColorMatrixKernel;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Microbenchmarks for the filter code.  Each case runs a warm-up pass so the JIT has compiled
+ * it, then several timed passes, and prints the fastest pass in nanoseconds per operation.
+ * Numbers are only comparable between cases of the same run.
+ *
+ * Usage: FilterBenchmark [operations-per-pass]
+ */
+public class FilterBenchmark {
+    private static final int DEFAULT_OPERATIONS = 2000000;
+    private static final int PASSES = 5;
+    private static final int PIXELS = 4096;
+
+    private final int mOperations;
+    private final float[] mMatrix = new float[ColorMatrixComposer.MATRIX_SIZE];
+    private final int[] mPixels = new int[PIXELS];
+    private final int[] mFiltered = new int[PIXELS];
+    // cases store results here so the JIT cannot drop the work as dead code
+    private float mSink;
+
+    /**
+     * A benchmarked operation.
+     */
+    abstract static class Case {
+        final String name;
+
+        Case(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Runs the operation count times.
+         */
+        abstract void run(int count);
+    }
+
+    /**
+     * Filters the benchmark pixels with a kernel, one pixel per operation.
+     */
+    class KernelCase extends Case {
+        private final ColorMatrixKernel mKernel;
+
+        KernelCase(String name, ColorMatrixKernel kernel) {
+            super(name);
+            mKernel = kernel;
+        }
+
+        @Override
+        void run(int count) {
+            for (int done = 0; done < count; done += PIXELS) {
+                int n = Math.min(PIXELS, count - done);
+                mKernel.filter(mPixels, 0, mFiltered, 0, n);
+                mSink += mFiltered[n - 1];
+            }
+        }
+    }
+
+    public FilterBenchmark(int operations) {
+        mOperations = operations;
+        Random random = new Random(0);
+        for (int i = 0; i < PIXELS; i++) {
+            mPixels[i] = random.nextInt();
+        }
+    }
+
+    public static void main(String[] args) {
+        int operations = DEFAULT_OPERATIONS;
+        if (args.length > 1 || args.length == 1 && (operations = parseCount(args[0])) < 1) {
+            System.err.println("Usage: FilterBenchmark [operations-per-pass]");
+            System.exit(2);
+        }
+        new FilterBenchmark(operations).runAll();
+    }
+
+    private static int parseCount(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public void runAll() {
+        // integer angles come from the cos/sin table, fractional ones are computed
+        measure(new Case("hue, integer degrees") {
+            @Override
+            void run(int count) {
+                for (int i = 0; i < count; i++) {
+                    ColorMatrixComposer.setHue(mMatrix, i % 361 - 180);
+                    mSink += mMatrix[0];
+                }
+            }
+        });
+        measure(new Case("hue, fractional degrees") {
+            @Override
+            void run(int count) {
+                for (int i = 0; i < count; i++) {
+                    ColorMatrixComposer.setHue(mMatrix, i % 361 - 180.5f);
+                    mSink += mMatrix[0];
+                }
+            }
+        });
+
+        // a hue rotation has cross channel terms, so it needs the full multiply-add kernel
+        float[] general = new float[ColorMatrixComposer.MATRIX_SIZE];
+        ColorMatrixComposer.setHue(general, 30);
+        measure(new KernelCase("kernel, float", new ColorMatrixKernel(general)));
+        measure(new KernelCase("kernel, fixed point", new FixedPointColorMatrixKernel(general)));
+        ColorMatrixKernel vector = VectorKernels.create(general);
+        if (vector != null) {
+            measure(new KernelCase("kernel, vector", vector));
+        } else {
+            System.out.println("kernel, vector: not available, see VectorKernels");
+        }
+    }
+
+    /**
+     * Runs c and prints its fastest pass.
+     */
+    void measure(Case c) {
+        c.run(mOperations);
+        long best = Long.MAX_VALUE;
+        for (int pass = 0; pass < PASSES; pass++) {
+            long start = System.nanoTime();
+            c.run(mOperations);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println(String.format(Locale.US, "%-32s %8.1f ns/op", c.name,
+                (double) best / mOperations));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters.tools;
+
+import com.scheffsblend.iconfilters.ColorMatrixKernel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Applies a {@link ColorMatrixKernel} to a large pixel buffer, such as an icon atlas, by
+ * splitting it into tiles of whole rows and filtering them on a
+ * {@link ForkJoinPool}.  Each pixel is filtered independently so the output is identical to
+ * running the kernel over the whole buffer on one thread.
+ *
+ * Tiles default to about 16K pixels, enough rows to amortize task overhead while a tile's
+ * source and destination rows stay in cache.  By default the renderer uses its own pool with
+ * one thread less than the number of cores; pass a pool to share one with other work.
+ *
+ * This lives with the tools rather than the app because ForkJoinPool needs Android API 21 and
+ * the app supports API 19.  {@link BatchFilterTool} uses it for images too large to filter on
+ * one thread.
+ */
+public class ParallelColorFilterRenderer {
+    private static final int TARGET_TILE_PIXELS = 16 * 1024;
+
+    private final ForkJoinPool mPool;
+    private final boolean mOwnsPool;
+    private final int mTileRows;
+
+    public ParallelColorFilterRenderer() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Creates a renderer with its own pool of the given parallelism.  Call {@link #shutdown()}
+     * when done with it.
+     */
+    public ParallelColorFilterRenderer(int parallelism) {
+        mPool = new ForkJoinPool(parallelism);
+        mOwnsPool = true;
+        mTileRows = 0;
+    }
+
+    /**
+     * Creates a renderer that runs on an existing pool.
+     *
+     * @param tileRows rows per tile, or 0 to size tiles from the image width
+     */
+    public ParallelColorFilterRenderer(ForkJoinPool pool, int tileRows) {
+        if (pool == null) throw new NullPointerException("pool == null");
+        if (tileRows < 0) throw new IllegalArgumentException("tileRows < 0");
+        mPool = pool;
+        mOwnsPool = false;
+        mTileRows = tileRows;
+    }
+
+    /**
+     * Filters a tightly packed width x height image from src into dst.  src and dst may be the
+     * same array.
+     */
+    public void render(ColorMatrixKernel kernel, int[] src, int[] dst, int width, int height) {
+        render(kernel, src, 0, dst, 0, width, height, width);
+    }
+
+    /**
+     * Filters a width x height region whose rows are stride pixels apart in both src and dst.
+     */
+    public void render(ColorMatrixKernel kernel, int[] src, int srcOffset, int[] dst,
+            int dstOffset, int width, int height, int stride) {
+        if (width < 0 || height < 0 || stride < width) {
+            throw new IllegalArgumentException("Invalid dimensions " + width + "x" + height
+                    + ", stride " + stride);
+        }
+        if (width == 0 || height == 0) return;
+
+        int tileRows = mTileRows > 0 ? mTileRows : Math.max(1, TARGET_TILE_PIXELS / width);
+        mPool.invoke(new TileTask(kernel, src, srcOffset, dst, dstOffset, width, stride,
+                0, height, tileRows));
+    }
+
+    /**
+     * Shuts down the pool if this renderer created it.
+     */
+    public void shutdown() {
+        if (mOwnsPool) mPool.shutdown();
+    }
+
+    private static class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ColorMatrixKernel mKernel;
+        private final int[] mSrc;
+        private final int mSrcOffset;
+        private final int[] mDst;
+        private final int mDstOffset;
+        private final int mWidth;
+        private final int mStride;
+        private final int mStartRow;
+        private final int mEndRow;
+        private final int mTileRows;
+
+        TileTask(ColorMatrixKernel kernel, int[] src, int srcOffset, int[] dst, int dstOffset,
+                int width, int stride, int startRow, int endRow, int tileRows) {
+            mKernel = kernel;
+            mSrc = src;
+            mSrcOffset = srcOffset;
+            mDst = dst;
+            mDstOffset = dstOffset;
+            mWidth = width;
+            mStride = stride;
+            mStartRow = startRow;
+            mEndRow = endRow;
+            mTileRows = tileRows;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = mEndRow - mStartRow;
+            if (rows <= mTileRows) {
+                if (mStride == mWidth) {
+                    // rows are contiguous so the whole tile is one span
+                    mKernel.filter(mSrc, mSrcOffset + mStartRow * mStride, mDst,
+                            mDstOffset + mStartRow * mStride, rows * mWidth);
+                    return;
+                }
+                for (int row = mStartRow; row < mEndRow; row++) {
+                    mKernel.filter(mSrc, mSrcOffset + row * mStride, mDst,
+                            mDstOffset + row * mStride, mWidth);
+                }
+                return;
+            }
+            // split on a tile boundary so tiles keep their full size
+            int split = mStartRow + ((rows / mTileRows + 1) / 2) * mTileRows;
+            invokeAll(new TileTask(mKernel, mSrc, mSrcOffset, mDst, mDstOffset, mWidth, mStride,
+                            mStartRow, split, mTileRows),
+                    new TileTask(mKernel, mSrc, mSrcOffset, mDst, mDstOffset, mWidth, mStride,
+                            split, mEndRow, mTileRows));
+        }
+    }
+}
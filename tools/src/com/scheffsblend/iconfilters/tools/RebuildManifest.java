@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters.tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records which outputs a batch run produced, keyed by the content hash of the source icon, the
+ * fingerprint of the filter and the hash of the output path, so a later run can skip every icon
+ * whose source and filter have not changed.
+ *
+ * The file is a 16 byte header followed by fixed 32 byte records sorted by key: source hash,
+ * filter key, path hash and output length, each a big endian long.  Loading maps the file and
+ * lookups binary search the mapping in place, so opening a manifest for tens of thousands of
+ * icons costs one mmap and no parsing.
+ *
+ * Records looked up or added during a run are collected and {@link #save(Path) saved} as the
+ * new manifest; records for icons that were not seen again are dropped.  Lookups and
+ * {@link #put} may be called from any thread.
+ */
+public class RebuildManifest {
+    private static final int MAGIC = 0x4946524d; // "IFRM"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_LONGS = 4;
+    private static final int RECORD_SIZE = RECORD_LONGS * 8;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final LongBuffer mRecords;
+    private final int mCount;
+    private final List<Record> mPending = new ArrayList<Record>();
+
+    private static class Record implements Comparable<Record> {
+        final long sourceHash;
+        final long filterKey;
+        final long pathHash;
+        final long outputLength;
+
+        Record(long sourceHash, long filterKey, long pathHash, long outputLength) {
+            this.sourceHash = sourceHash;
+            this.filterKey = filterKey;
+            this.pathHash = pathHash;
+            this.outputLength = outputLength;
+        }
+
+        @Override
+        public int compareTo(Record other) {
+            return compareKeys(sourceHash, filterKey, pathHash,
+                    other.sourceHash, other.filterKey, other.pathHash);
+        }
+    }
+
+    private RebuildManifest(LongBuffer records, int count) {
+        mRecords = records;
+        mCount = count;
+    }
+
+    /**
+     * Creates an empty manifest, under which every icon is rebuilt.
+     */
+    public RebuildManifest() {
+        this(null, 0);
+    }
+
+    /**
+     * Maps the manifest at file.  A missing file gives an empty manifest.
+     *
+     * @throws IOException if the file cannot be read or is not a manifest of this version
+     */
+    public static RebuildManifest load(Path file) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return new RebuildManifest();
+        }
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE || (size - HEADER_SIZE) % RECORD_SIZE != 0
+                    || (size - HEADER_SIZE) / RECORD_SIZE > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not a rebuild manifest");
+            }
+            ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (map.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a rebuild manifest");
+            }
+            if (map.getInt(4) != VERSION) {
+                throw new IOException(file + " has unsupported version " + map.getInt(4));
+            }
+            int count = map.getInt(8);
+            if (count != (size - HEADER_SIZE) / RECORD_SIZE) {
+                throw new IOException(file + " is truncated");
+            }
+            map.position(HEADER_SIZE);
+            // the mapping stays valid after the channel is closed
+            return new RebuildManifest(map.slice().asLongBuffer(), count);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return number of records loaded from disk
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns the output length recorded for a source, filter and output path, or -1 if the
+     * combination was not produced by the previous run.
+     */
+    public long lookup(long sourceHash, long filterKey, long pathHash) {
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int base = mid * RECORD_LONGS;
+            int cmp = compareKeys(mRecords.get(base), mRecords.get(base + 1),
+                    mRecords.get(base + 2), sourceHash, filterKey, pathHash);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mRecords.get(base + 3);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a record to the manifest written by {@link #save(Path)}, either for a new output or
+     * to keep one found by {@link #lookup}.
+     */
+    public void put(long sourceHash, long filterKey, long pathHash, long outputLength) {
+        Record record = new Record(sourceHash, filterKey, pathHash, outputLength);
+        synchronized (mPending) {
+            mPending.add(record);
+        }
+    }
+
+    /**
+     * Writes every record passed to {@link #put} to file.  The manifest is written to a
+     * temporary file first and moved over file, so an interrupted save leaves the old one.
+     */
+    public void save(Path file) throws IOException {
+        List<Record> records;
+        synchronized (mPending) {
+            records = new ArrayList<Record>(mPending);
+        }
+        Collections.sort(records);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + records.size() * RECORD_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(0);
+        int count = 0;
+        Record previous = null;
+        for (Record r : records) {
+            if (previous != null && previous.compareTo(r) == 0) continue;
+            buffer.putLong(r.sourceHash).putLong(r.filterKey).putLong(r.pathHash)
+                    .putLong(r.outputLength);
+            previous = r;
+            count++;
+        }
+        buffer.putInt(8, count);
+        buffer.flip();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            channel.close();
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of count bytes of data starting at offset.
+     */
+    public static long hash(byte[] data, int offset, int count) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = offset; i < offset + count; i++) {
+            hash = (hash ^ (data[i] & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of the UTF-16 code units of s.
+     */
+    public static long hash(CharSequence s) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static int compareKeys(long source1, long filter1, long path1,
+            long source2, long filter2, long path2) {
+        if (source1 != source2) return source1 < source2 ? -1 : 1;
+        if (filter1 != filter2) return filter1 < filter2 ? -1 : 1;
+        if (path1 != path2) return path1 < path2 ? -1 : 1;
+        return 0;
+    }
+}
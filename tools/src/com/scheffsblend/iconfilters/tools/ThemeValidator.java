@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters.tools;
+
+import com.scheffsblend.iconfilters.ColorMatrixComposer;
+import com.scheffsblend.iconfilters.CompiledFilter;
+import com.scheffsblend.iconfilters.FilterCache;
+import com.scheffsblend.iconfilters.FilterChain;
+import com.scheffsblend.iconfilters.FilterParseException;
+import com.scheffsblend.iconfilters.FilterXmlParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the filter definitions of every theme in a theme repository.  Each subdirectory of
+ * the repository is a theme and every filter file inside it, appfilter.xml by default, is
+ * parsed and checked:
+ * <ul>
+ * <li>every filter element must be well formed and name a known filter,</li>
+ * <li>every value must be one the designer can produce, see
+ * {@link FilterChain#isValidValue(int, double)},</li>
+ * <li>the filters of a file must compose to a finite color matrix.</li>
+ * </ul>
+ *
+ * Themes are checked in parallel, one task per theme.  Composed chains go into a
+ * {@link FilterCache} shared by all tasks and keyed by fingerprint, so a chain that appears in
+ * many themes is usually composed once.  Distinct chains are counted by fingerprint separately,
+ * since the cache can evict a chain and two tasks can miss on the same chain at once.  Errors
+ * are printed as file:line: message, in theme order, once every theme has been checked.
+ *
+ * Usage: ThemeValidator [--threads N] [--name file.xml] theme-repository...
+ */
+public class ThemeValidator {
+    private static final String DEFAULT_FILE_NAME = "appfilter.xml";
+    private static final int CHAIN_CACHE_SIZE = 4096;
+
+    private final FilterCache<CompiledFilter> mChainCache =
+            new FilterCache<CompiledFilter>(CHAIN_CACHE_SIZE);
+    private final String mFileName;
+    private final int mThreads;
+    private final AtomicInteger mFileCount = new AtomicInteger();
+    private final Set<Long> mFingerprints =
+            Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    public ThemeValidator(String fileName, int threads) {
+        mFileName = fileName;
+        mThreads = threads;
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String fileName = DEFAULT_FILE_NAME;
+        List<Path> roots = new ArrayList<Path>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = BatchFilterTool.parseThreadCount(args[++i]);
+            } else if ("--name".equals(args[i]) && i + 1 < args.length) {
+                fileName = args[++i];
+            } else {
+                roots.add(Paths.get(args[i]));
+            }
+        }
+        if (roots.isEmpty() || threads < 1) {
+            System.err.println("Usage: ThemeValidator [--threads N] [--name file.xml] "
+                    + "theme-repository...");
+            System.exit(2);
+        }
+
+        ThemeValidator validator = new ThemeValidator(fileName, threads);
+        try {
+            List<Path> themes = new ArrayList<Path>();
+            for (Path root : roots) {
+                themes.addAll(listThemes(root));
+            }
+            long start = System.nanoTime();
+            List<String> errors = validator.validate(themes);
+            for (String error : errors) {
+                System.out.println(error);
+            }
+            System.out.println(String.format(Locale.US,
+                    "Checked %d files in %d themes in %d ms: %d errors, %d distinct chains",
+                    validator.getFileCount(), themes.size(),
+                    (System.nanoTime() - start) / 1000000, errors.size(),
+                    validator.getDistinctChainCount()));
+            System.exit(errors.isEmpty() ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return the subdirectories of root, in name order
+     */
+    static List<Path> listThemes(Path root) throws IOException {
+        List<Path> themes = new ArrayList<Path>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(root);
+        try {
+            for (Path p : stream) {
+                if (Files.isDirectory(p)) themes.add(p);
+            }
+        } finally {
+            stream.close();
+        }
+        Collections.sort(themes);
+        return themes;
+    }
+
+    public int getFileCount() {
+        return mFileCount.get();
+    }
+
+    /**
+     * @return number of distinct chain fingerprints among the files that parsed
+     */
+    public int getDistinctChainCount() {
+        return mFingerprints.size();
+    }
+
+    /**
+     * Checks every theme in parallel.
+     *
+     * @return the errors found, grouped by theme in the order given
+     */
+    public List<String> validate(List<Path> themes) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        try {
+            List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+            for (final Path theme : themes) {
+                results.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws IOException {
+                        return validateTheme(theme);
+                    }
+                }));
+            }
+            List<String> errors = new ArrayList<String>();
+            for (Future<List<String>> result : results) {
+                try {
+                    errors.addAll(result.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    throw new RuntimeException(cause);
+                }
+            }
+            return errors;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks the filter files of one theme.  Runs on a pool thread with its own parser.
+     */
+    List<String> validateTheme(Path theme) throws IOException {
+        final List<Path> files = new ArrayList<Path>();
+        Files.walkFileTree(theme, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && mFileName.equals(file.getFileName().toString())) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(files);
+
+        FilterXmlParser parser = new FilterXmlParser();
+        FilterChain chain = new FilterChain();
+        List<String> errors = new ArrayList<String>();
+        for (Path file : files) {
+            mFileCount.incrementAndGet();
+            chain.clear();
+            validateFile(parser, file, chain, errors);
+        }
+        return errors;
+    }
+
+    private void validateFile(FilterXmlParser parser, final Path file, final FilterChain chain,
+            final List<String> errors) throws IOException {
+        Reader reader = Files.newBufferedReader(file, Charset.forName("UTF-8"));
+        try {
+            parser.parse(reader, new FilterXmlParser.Handler() {
+                @Override
+                public void onFilter(int type, double value, int lineNumber) {
+                    if (!FilterChain.isValidValue(type, value)) {
+                        errors.add(file + ":" + lineNumber + ": " + FilterChain.getTypeName(type)
+                                + " value " + formatValue(value) + " is outside "
+                                + FilterChain.getMinValue(type) + ".."
+                                + FilterChain.getMaxValue(type));
+                    }
+                    chain.add(type, value);
+                }
+
+                @Override
+                public void onError(String message, int lineNumber) {
+                    errors.add(file + ":" + lineNumber + ": " + message);
+                }
+            });
+        } catch (FilterParseException e) {
+            errors.add(e.getLineNumber() > 0
+                    ? file + ":" + e.getLineNumber() + ": " + e.getReason()
+                    : file + ": " + e.getReason());
+            return;
+        } finally {
+            reader.close();
+        }
+
+        if (!isFinite(compile(chain))) {
+            errors.add(file + ": filters compose to a color matrix that is not finite");
+        }
+    }
+
+    private CompiledFilter compile(FilterChain chain) {
+        long fingerprint = chain.fingerprint();
+        mFingerprints.add(fingerprint);
+        CompiledFilter filter = mChainCache.get(fingerprint);
+        if (filter == null) {
+            filter = CompiledFilter.compile(chain);
+            mChainCache.put(fingerprint, filter);
+        }
+        return filter;
+    }
+
+    private static String formatValue(double value) {
+        return value == (long) value ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static boolean isFinite(CompiledFilter filter) {
+        for (int i = 0; i < ColorMatrixComposer.MATRIX_SIZE; i++) {
+            float c = filter.getCoefficient(i);
+            if (Float.isNaN(c) || Float.isInfinite(c)) return false;
+        }
+        return true;
+    }
+}
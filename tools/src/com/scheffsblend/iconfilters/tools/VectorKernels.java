@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters.tools;
+
+import com.scheffsblend.iconfilters.ColorMatrixKernel;
+
+/**
+ * Loads the optional jdk.incubator.vector kernel in the tools.vector package.  That package is
+ * only compiled and usable with --add-modules jdk.incubator.vector, so it is loaded by name and
+ * callers fall back to the scalar kernels when it is not there.
+ */
+final class VectorKernels {
+    private static final String KERNEL_CLASS =
+            "com.scheffsblend.iconfilters.tools.vector.VectorColorMatrixKernel";
+
+    private VectorKernels() {
+    }
+
+    /**
+     * @return a vector kernel for matrix with the same output as {@link ColorMatrixKernel}, or
+     * null if the vector kernel was not compiled in or the Vector API module is not available
+     */
+    static ColorMatrixKernel create(float[] matrix) {
+        try {
+            return (ColorMatrixKernel) Class.forName(KERNEL_CLASS)
+                    .getConstructor(float[].class).newInstance((Object) matrix);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        } catch (LinkageError e) {
+            // the class was compiled but jdk.incubator.vector is not in the module graph
+            return null;
+        }
+    }
+}
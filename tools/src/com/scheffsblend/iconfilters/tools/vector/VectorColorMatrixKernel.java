@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014 Clark Scheff
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.scheffsblend.iconfilters.tools.vector;
+
+import com.scheffsblend.iconfilters.ColorMatrixKernel;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link ColorMatrixKernel} that filters a whole vector of pixels per step with the
+ * jdk.incubator.vector API.  Each step unpacks the four channels of every lane to floats, runs
+ * the 4x5 multiply-add with the same operations in the same order as the scalar kernel,
+ * clamps and rounds, and repacks, so the output is bit for bit the scalar kernel's.  Pixels
+ * left over after the last full vector go through the scalar path.
+ *
+ * This class needs JDK 16 or later with --add-modules jdk.incubator.vector at both compile and
+ * run time, so nothing refers to it directly: {@link
+ * com.scheffsblend.iconfilters.tools.VectorKernels} loads it by name and falls back to the
+ * scalar kernels when it is missing or the module is not available.
+ */
+public class VectorColorMatrixKernel extends ColorMatrixKernel {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final float MAGIC = 1 << 23;
+    private static final int MAGIC_BITS = Float.floatToRawIntBits(MAGIC);
+
+    public VectorColorMatrixKernel(float[] matrix) {
+        super(matrix);
+        if (INTS.length() != FLOATS.length()) {
+            throw new UnsupportedOperationException("Int and float vectors differ in length");
+        }
+    }
+
+    @Override
+    public void filter(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dst.length, dstOffset, count);
+
+        final float[] m = mMatrix;
+        final int bound = INTS.loopBound(count);
+        int i = 0;
+        for (; i < bound; i += INTS.length()) {
+            IntVector color = IntVector.fromArray(INTS, src, srcOffset + i);
+            FloatVector r = toFloat(color.lanewise(VectorOperators.LSHR, 16).and(0xff));
+            FloatVector g = toFloat(color.lanewise(VectorOperators.LSHR, 8).and(0xff));
+            FloatVector b = toFloat(color.and(0xff));
+            FloatVector a = toFloat(color.lanewise(VectorOperators.LSHR, 24));
+            IntVector ca = round(r.mul(m[15]).add(g.mul(m[16])).add(b.mul(m[17]))
+                    .add(a.mul(m[18])).add(m[19]));
+            IntVector cr = round(r.mul(m[0]).add(g.mul(m[1])).add(b.mul(m[2]))
+                    .add(a.mul(m[3])).add(m[4]));
+            IntVector cg = round(r.mul(m[5]).add(g.mul(m[6])).add(b.mul(m[7]))
+                    .add(a.mul(m[8])).add(m[9]));
+            IntVector cb = round(r.mul(m[10]).add(g.mul(m[11])).add(b.mul(m[12]))
+                    .add(a.mul(m[13])).add(m[14]));
+            ca.lanewise(VectorOperators.LSHL, 24).or(cr.lanewise(VectorOperators.LSHL, 16))
+                    .or(cg.lanewise(VectorOperators.LSHL, 8)).or(cb)
+                    .intoArray(dst, dstOffset + i);
+        }
+        for (; i < count; i++) {
+            dst[dstOffset + i] = filter(src[srcOffset + i]);
+        }
+    }
+
+    /**
+     * Converts channel values in [0, 255] to float by placing them in the mantissa of 2^23,
+     * which is exact and avoids lane conversions that C2 does not always compile to vector
+     * instructions.
+     */
+    private static FloatVector toFloat(IntVector channel) {
+        return channel.or(MAGIC_BITS).reinterpretAsFloats().sub(MAGIC);
+    }
+
+    /**
+     * Clamps and rounds channel sums the way {@link ColorMatrixKernel#clamp} does: NaN and
+     * values up to 0 give 0, values from 255 up give 255, and anything between is truncated
+     * after adding 0.5.
+     */
+    private static IntVector round(FloatVector sum) {
+        // NaN fails the comparison, so it takes the zero branch
+        FloatVector half = sum.min(255f).blend(0f, sum.compare(VectorOperators.GT, 0f).not())
+                .add(0.5f);
+        // adding 2^23 rounds to an integer in the low mantissa bits, to nearest; step back one
+        // where that rounded up so the result truncates like the scalar cast
+        FloatVector rounded = half.add(MAGIC);
+        IntVector bits = rounded.reinterpretAsInts().sub(MAGIC_BITS);
+        IntVector down = bits.sub(1);
+        return bits.blend(down, rounded.sub(MAGIC).compare(VectorOperators.GT, half)
+                .cast(INTS));
+    }
+}